@@ -0,0 +1,63 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.ProductServiceBoot;
+import com.islamhamada.petshop.entity.Product;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class BenchmarkData {
+
+    static final String[] FOR_ANIMALS = {"dog", "cat", "bird", "fish", "hamster", "rabbit", "guinea pig", "turtle"};
+    static final String[] UTILITIES = {"toy", "food", "bedding", "cleaning", "grooming", "cage", "leash", "bowl"};
+
+    private BenchmarkData() {
+    }
+
+    // the test classpath comes first, so the context runs against the embedded H2 from src/test/resources
+    static ConfigurableApplicationContext startApplication(String... args) {
+        String[] all = Arrays.copyOf(new String[]{"--server.port=0", "--logging.level.root=warn"}, 2 + args.length);
+        System.arraycopy(args, 0, all, 2, args.length);
+        return SpringApplication.run(ProductServiceBoot.class, all);
+    }
+
+    static List<Product> products(int count) {
+        List<Product> products = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            products.add(product(i));
+        return products;
+    }
+
+    static Product product(int i) {
+        String forAnimal = FOR_ANIMALS[i % FOR_ANIMALS.length];
+        String utility = UTILITIES[(i / FOR_ANIMALS.length) % UTILITIES.length];
+        return Product.builder()
+                .id(i + 1)
+                .name(forAnimal + " " + utility + " " + i)
+                .quantity(i % 50)
+                .price(1 + (i % 1000) / 10.0)
+                .description(utility + " for " + forAnimal + "s, product number " + i)
+                .image("https://picsum.photos/seed/" + i + "/400/300")
+                .forAnimal(forAnimal)
+                .utility(utility)
+                .build();
+    }
+
+    static void insert(JdbcTemplate jdbcTemplate, int count) {
+        List<Object[]> rows = new ArrayList<>(1000);
+        for(int i = 0; i < count; i++) {
+            Product product = product(i);
+            rows.add(new Object[]{product.getName(), product.getQuantity(), product.getPrice(),
+                    product.getDescription(), product.getImage(), product.getForAnimal(), product.getUtility()});
+            if(rows.size() == 1000 || i == count - 1) {
+                jdbcTemplate.batchUpdate("insert into product (name, quantity, price, description, image, for_animal, utility) "
+                        + "values (?, ?, ?, ?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.model.ProductFilter;
+import com.islamhamada.petshop.model.ProductPage;
+import com.islamhamada.petshop.service.ProductService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+// GET /product/filter with and without the composite (for_animal, utility, price) index,
+// the indexed variant should stay flat while the scan grows with the row count
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductFilterBenchmark {
+
+    @Param({"10000", "100000", "500000"})
+    private int rows;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    private ConfigurableApplicationContext context;
+
+    private ProductService productService;
+
+    private ProductFilter filter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkData.startApplication();
+        productService = context.getBean(ProductService.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("delete from product");
+        if(!indexed) {
+            jdbcTemplate.execute("drop index if exists idx_product_for_animal_utility_price");
+            jdbcTemplate.execute("drop index if exists idx_product_utility_price");
+        }
+        BenchmarkData.insert(jdbcTemplate, rows);
+        jdbcTemplate.execute("analyze");
+        filter = ProductFilter.builder()
+                .for_animal("cat")
+                .utility("toy")
+                .max_price(10.0)
+                .in_stock(true)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ProductPage filter() {
+        return productService.getFilteredProducts(filter, null, 20, "asc");
+    }
+}
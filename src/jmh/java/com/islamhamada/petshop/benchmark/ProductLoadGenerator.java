@@ -0,0 +1,102 @@
+package com.islamhamada.petshop.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// closed-loop load against a running instance, one client per concurrency level step; run it once against the
+// default deployment and once with SPRING_PROFILES_ACTIVE=virtual-threads and compare the two tables.
+// args: base url, comma separated client counts, seconds per step, path
+public class ProductLoadGenerator {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private record Step(int clients, long requests, long errors, int maxInFlight, double seconds, long[] latencies) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8083";
+        int[] levels = Arrays.stream((args.length > 1 ? args[1] : "50,200,500,1000,2000").split(","))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 30);
+        URI uri = URI.create(baseUrl + (args.length > 3 ? args[3] : "/product/page?size=20"));
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        System.out.println("GET " + uri + ", " + duration.toSeconds() + "s per step");
+        System.out.printf("%8s %10s %8s %10s %10s %10s %12s %12s%n",
+                "clients", "req/s", "errors", "p50 ms", "p99 ms", "max ms", "in flight", "served");
+        for(int clients : levels) {
+            Step step = run(client, uri, clients, duration);
+            long[] latencies = step.latencies();
+            Arrays.sort(latencies);
+            double throughput = step.requests() / step.seconds();
+            double mean = Arrays.stream(latencies).average().orElse(0) / 1_000_000;
+            // Little's law: requests actually being worked on by the server at the same time
+            double served = throughput * mean / 1000;
+            System.out.printf("%8d %10.0f %8d %10.1f %10.1f %10.1f %12d %12.0f%n",
+                    clients, throughput, step.errors(), percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    percentile(latencies, 1.0), step.maxInFlight(), served);
+        }
+    }
+
+    private static Step run(HttpClient client, URI uri, int clients, Duration duration) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).GET().build();
+        AtomicLong errors = new AtomicLong();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        List<Future<long[]>> workers = new ArrayList<>(clients);
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for(int i = 0; i < clients; i++)
+                workers.add(executor.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    while(System.nanoTime() < deadline) {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if(response.statusCode() >= 400)
+                                errors.incrementAndGet();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                        if(count == latencies.length)
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        latencies[count++] = System.nanoTime() - sent;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        List<long[]> results = new ArrayList<>(clients);
+        for(Future<long[]> worker : workers)
+            results.add(worker.get());
+        long[] latencies = results.stream().flatMapToLong(Arrays::stream).toArray();
+        return new Step(clients, latencies.length, errors.get(), maxInFlight.get(), seconds, latencies);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if(sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,52 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.service.ProductMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// entity -> ProductDTO copy done by getAllProducts (whole list) and getProductById (single row)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductMappingBenchmark {
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private List<Product> products;
+
+    private Product product;
+
+    @Setup
+    public void setup() {
+        products = BenchmarkData.products(size);
+        product = products.get(size / 2);
+    }
+
+    @Benchmark
+    public List<ProductDTO> mapAll() {
+        return products.stream().map(ProductMapper::toProductDTO).toList();
+    }
+
+    @Benchmark
+    public ProductDTO mapOne() {
+        return ProductMapper.toProductDTO(product);
+    }
+}
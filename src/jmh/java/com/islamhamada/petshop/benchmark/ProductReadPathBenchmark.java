@@ -0,0 +1,82 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductSpecifications;
+import com.islamhamada.petshop.service.ProductMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// managed entities + mapper against the ProductView projection for the same page of rows,
+// run with -prof gc (the profile default) to compare gc.alloc.rate.norm per read
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductReadPathBenchmark {
+
+    @Param({"20", "1000"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+
+    private ProductRepository productRepository;
+
+    private TransactionTemplate readOnly;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkData.startApplication();
+        productRepository = context.getBean(ProductRepository.class);
+        readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("delete from product");
+        BenchmarkData.insert(jdbcTemplate, 10000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    // the entity equivalent of findPageAfter, one query like the view path and no count(*) a Page would add
+    @Benchmark
+    public List<ProductDTO> entities() {
+        return readOnly.execute(status -> productRepository.findBy(ProductSpecifications.idAfter(Long.MIN_VALUE), query -> query
+                        .sortBy(Sort.by("id"))
+                        .limit(size)
+                        .all()).stream()
+                .map(ProductMapper::toProductDTO)
+                .toList());
+    }
+
+    @Benchmark
+    public List<ProductDTO> views() {
+        return readOnly.execute(status -> productRepository.findPageAfter(Long.MIN_VALUE, PageRequest.of(0, size)).stream()
+                .map(ProductMapper::toProductDTO)
+                .toList());
+    }
+}
@@ -0,0 +1,73 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.islamhamada.petshop.config.BinaryFormatsConfiguration;
+import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import com.islamhamada.petshop.service.ProductMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// Jackson serialization of the GET /product payload in each format the service negotiates, plain and with the
+// gzip the server applies. The bytes on the wire are printed once per trial, the time per payload is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductSerializationBenchmark {
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    private List<ProductDTO> products;
+
+    private ObjectWriter writer;
+
+    @Setup
+    public void setup() throws IOException {
+        products = BenchmarkData.products(size).stream().map(ProductMapper::toProductDTO).toList();
+        ObjectMapper objectMapper = switch(format) {
+            case "smile" -> new ObjectMapper(BinaryFormatsConfiguration.smileFactory());
+            case "cbor" -> new ObjectMapper(new CBORFactory());
+            default -> new ObjectMapper();
+        };
+        writer = objectMapper.findAndRegisterModules().writerFor(List.class);
+        System.out.println(format + ", " + size + " products: " + serialize().length + " bytes, "
+                + serializeGzip().length + " bytes gzipped");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(products);
+    }
+
+    @Benchmark
+    public byte[] serializeGzip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            writer.writeValue(gzip, products);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,65 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.service.ProductService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// reduceProductQuantity through the Spring context against embedded H2, with 16 threads
+// spread over `products` rows: 1 is a single hot SKU, 64 is mostly uncontended
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(16)
+@Fork(1)
+public class ReduceQuantityBenchmark {
+
+    @Param({"1", "64"})
+    private int products;
+
+    private ConfigurableApplicationContext context;
+
+    private ProductService productService;
+
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkData.startApplication();
+        productService = context.getBean(ProductService.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("delete from product");
+        BenchmarkData.insert(jdbcTemplate, products);
+        jdbcTemplate.update("update product set quantity = ?", Integer.MAX_VALUE);
+        firstId = jdbcTemplate.queryForObject("select min(id) from product", Long.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int reduce() {
+        long id = firstId + ThreadLocalRandom.current().nextInt(products);
+        return productService.reduceProductQuantity(id, 1);
+    }
+}
@@ -0,0 +1,65 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.service.ProductService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+// 16 threads checking out one hot SKU, 0 shards is the single product row, throughput should grow with the
+// shard count until the threads stop colliding on the same shard
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(16)
+@Fork(1)
+public class ShardedStockBenchmark {
+
+    @Param({"0", "4", "16", "64"})
+    private int shards;
+
+    private ConfigurableApplicationContext context;
+
+    private ProductService productService;
+
+    private long id;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkData.startApplication();
+        productService = context.getBean(ProductService.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("delete from product_stock_shard");
+        jdbcTemplate.update("delete from product");
+        BenchmarkData.insert(jdbcTemplate, 1);
+        jdbcTemplate.update("update product set quantity = ?", Integer.MAX_VALUE);
+        id = jdbcTemplate.queryForObject("select min(id) from product", Long.class);
+        productService.configureStockShards(id, shards);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int reduce() {
+        return productService.reduceProductQuantity(id, 1);
+    }
+}
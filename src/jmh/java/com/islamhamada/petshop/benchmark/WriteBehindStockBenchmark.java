@@ -0,0 +1,73 @@
+package com.islamhamada.petshop.benchmark;
+
+import com.islamhamada.petshop.service.ProductService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 16 threads decrementing random products, the row updates of the default mode against the journaled
+// in-memory counters; the journal is fsynced in both write-behind runs so the comparison stays honest
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(16)
+@Fork(1)
+public class WriteBehindStockBenchmark {
+
+    @Param({"false", "true"})
+    private boolean writeBehind;
+
+    @Param({"1", "1000"})
+    private int products;
+
+    private ConfigurableApplicationContext context;
+
+    private ProductService productService;
+
+    private List<Long> ids;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = BenchmarkData.startApplication(
+                "--product.write-behind.enabled=" + writeBehind,
+                "--product.write-behind.node-id=benchmark",
+                "--product.write-behind.journal-directory=" + Files.createTempDirectory("stock-journal"));
+        productService = context.getBean(ProductService.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("delete from product_stock_shard");
+        jdbcTemplate.update("delete from product");
+        BenchmarkData.insert(jdbcTemplate, products);
+        jdbcTemplate.update("update product set quantity = ?", Integer.MAX_VALUE);
+        ids = jdbcTemplate.queryForList("select id from product", Long.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int reduce() {
+        return productService.reduceProductQuantity(ids.get(ThreadLocalRandom.current().nextInt(ids.size())), 1);
+    }
+}
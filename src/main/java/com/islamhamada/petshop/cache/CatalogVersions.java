@@ -0,0 +1,109 @@
+package com.islamhamada.petshop.cache;
+
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.service.ProductChangeListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+
+// stamps behind the ETag and Last-Modified headers of the catalog reads, every committed change moves the
+// catalog and the changed product forward so a request carrying the current ETag is answered with 304
+// before the repository is touched. This instance's changes move them at commit, every instance's once
+// ProductEventRelay reads their product_event rows
+@Component
+public class CatalogVersions implements ProductChangeListener {
+
+    public record Stamp(long version, String etag, long lastModified) {
+    }
+
+    private static final BinaryOperator<Stamp> LATEST = (a, b) -> a.version() >= b.version() ? a : b;
+
+    @Autowired
+    private ProductProperties productProperties;
+
+    // versions restart with the process, the boot id keeps ETags handed out by a previous run from matching
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final Stamp initial = new Stamp(0, bootId + "-0", System.currentTimeMillis());
+
+    private final AtomicReference<Stamp> catalog = new AtomicReference<>(initial);
+
+    private final ConcurrentMap<Long, Stamp> products = new ConcurrentHashMap<>();
+
+    public Stamp catalog() {
+        return catalog.get();
+    }
+
+    public Stamp product(long id) {
+        return products.getOrDefault(id, initial);
+    }
+
+    @Override
+    public void productCreated(Product product) {
+        advance(List.of(product.getId()));
+    }
+
+    @Override
+    public void productUpdated(Product product) {
+        advance(List.of(product.getId()));
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        advance(List.of(product.getId()));
+    }
+
+    // whether every read can see the change behind this stamp: with a read replica a read shortly after the
+    // change may still get the old rows, which must not be cached or handed out under the new ETag
+    public boolean settled(Stamp stamp) {
+        ProductProperties.ReadReplica readReplica = productProperties.getReadReplica();
+        return !readReplica.isEnabled()
+                || stamp.lastModified() + readReplica.getMaxLag().toMillis() <= System.currentTimeMillis();
+    }
+
+    // for bulk statements, which don't go through the entity listener
+    public void bump(long id) {
+        bump(List.of(id));
+    }
+
+    public void bump(Collection<Long> ids) {
+        // moving the version before the commit would let a reader tag the old rows with the new ETag
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            advance(ids);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                advance(ids);
+            }
+        });
+    }
+
+    // changes read back from product_event, which also carries the writes of other instances and their importers
+    public void relayed(Collection<Long> ids) {
+        if(!ids.isEmpty())
+            advance(ids);
+    }
+
+    private void advance(Collection<Long> ids) {
+        long next = version.incrementAndGet();
+        Stamp stamp = new Stamp(next, bootId + "-" + next, System.currentTimeMillis());
+        // concurrent commits can get here out of order, a stamp never goes back to an older version
+        for(long id : ids)
+            products.merge(id, stamp, LATEST);
+        catalog.accumulateAndGet(stamp, LATEST);
+    }
+}
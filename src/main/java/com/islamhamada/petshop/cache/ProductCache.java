@@ -0,0 +1,97 @@
+package com.islamhamada.petshop.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.service.ProductChangeListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+
+@Component
+public class ProductCache implements ProductChangeListener {
+
+    private final Cache<Long, ProductDTO> cache;
+
+    private final CatalogVersions catalogVersions;
+
+    // Hibernate's second-level and query caches only see the writes that go through Hibernate, the JDBC ones
+    // reach them through here
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    public ProductCache(ProductProperties productProperties, CatalogVersions catalogVersions, MeterRegistry meterRegistry) {
+        this.catalogVersions = catalogVersions;
+        cache = Caffeine.newBuilder()
+                .maximumSize(productProperties.getCache().getMaximumSize())
+                .expireAfterWrite(productProperties.getCache().getTimeToLive())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "products");
+    }
+
+    public ProductDTO get(long id) {
+        return cache.getIfPresent(id);
+    }
+
+    public void put(ProductDTO product) {
+        if(catalogVersions.settled(catalogVersions.product(product.getId())))
+            cache.put(product.getId(), product);
+    }
+
+    @Override
+    public void productCreated(Product product) {
+        changed(product);
+    }
+
+    @Override
+    public void productUpdated(Product product) {
+        changed(product);
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        changed(product);
+    }
+
+    public void evict(long id) {
+        evict(List.of(id));
+    }
+
+    public void evict(Collection<Long> ids) {
+        cache.invalidateAll(ids);
+        evictEntities(ids);
+        // a reader can still load the pre-commit row and cache it, so evict again once the change is visible
+        if(TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidateAll(ids);
+                    evictEntities(ids);
+                }
+            });
+    }
+
+    private void changed(Product product) {
+        cache.invalidate(product.getId());
+        evictEntities(List.of(product.getId()));
+        // names, facets and the set of products may have changed
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+
+    private void evictEntities(Collection<Long> ids) {
+        jakarta.persistence.Cache secondLevel = entityManagerFactory.getCache();
+        for(long id : ids)
+            secondLevel.evict(Product.class, id);
+    }
+}
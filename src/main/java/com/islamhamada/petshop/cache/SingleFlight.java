@@ -0,0 +1,82 @@
+package com.islamhamada.petshop.cache;
+
+import com.islamhamada.petshop.config.ProductProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// collapses concurrent identical reads: the first caller for a key runs the load, callers arriving while it runs
+// wait for its result or exception instead of running their own query. A waiter gives up after max-wait and
+// loads for itself, so one stuck query can't hold every request for the key
+@Component
+public class SingleFlight {
+
+    private record Key(String operation, Object key) {
+    }
+
+    private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final ProductProperties productProperties;
+
+    private final MeterRegistry meterRegistry;
+
+    public SingleFlight(ProductProperties productProperties, MeterRegistry meterRegistry) {
+        this.productProperties = productProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> V load(String operation, Object key, Supplier<V> loader) {
+        Key flightKey = new Key(operation, key);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(flightKey, flight);
+        if(running == null) {
+            count(operation, "loaded");
+            try {
+                V value = loader.get();
+                flight.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(flightKey, flight);
+            }
+        }
+        try {
+            V value = (V) running.get(productProperties.getSingleFlight().getMaxWait().toNanos(), TimeUnit.NANOSECONDS);
+            count(operation, "shared");
+            return value;
+        } catch (ExecutionException e) {
+            count(operation, "shared");
+            if(e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if(e.getCause() instanceof Error cause)
+                throw cause;
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            count(operation, "timed_out");
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + operation + " of " + key, e);
+        }
+    }
+
+    private void count(String operation, String result) {
+        counters.computeIfAbsent(operation + " " + result, name -> Counter.builder("product.single_flight")
+                .tag("operation", operation)
+                .tag("result", result)
+                .register(meterRegistry)).increment();
+    }
+}
@@ -0,0 +1,36 @@
+package com.islamhamada.petshop.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+// application/x-jackson-smile and application/cbor for service-to-service calls that send an Accept header
+// for them, JSON stays the default. Both encode numbers and lengths in binary; only Smile drops the per-row
+// field names, which it back-references with shared property names (on by default), and with
+// CHECK_SHARED_STRING_VALUES it does the same for repeated short values such as for_animal and utility. CBOR
+// still writes every field name. The mappers come from Boot's builder, so they get the same modules and
+// features as the JSON one
+@Configuration(proxyBeanMethods = false)
+public class BinaryFormatsConfiguration {
+
+    public static SmileFactory smileFactory() {
+        return SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(smileFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
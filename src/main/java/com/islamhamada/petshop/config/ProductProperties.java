@@ -0,0 +1,144 @@
+package com.islamhamada.petshop.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "product")
+public class ProductProperties {
+
+    private Listing listing = new Listing();
+    private Cache cache = new Cache();
+    private Search search = new Search();
+    private BulkImport bulkImport = new BulkImport();
+    private VirtualThreads virtualThreads = new VirtualThreads();
+    private Reservations reservations = new Reservations();
+    private WriteBehind writeBehind = new WriteBehind();
+    private ReadReplica readReplica = new ReadReplica();
+    private Events events = new Events();
+    private RateLimit rateLimit = new RateLimit();
+    private Admission admission = new Admission();
+    private SingleFlight singleFlight = new SingleFlight();
+
+    @Data
+    public static class Listing {
+        // GET /product refuses to materialize catalogs larger than this, clients should page instead
+        private int maxUnpagedSize = 10000;
+        private int maxPageSize = 100;
+        // ids per GET /product/batch, one IN-query
+        private int maxBatchSize = 100;
+    }
+
+    @Data
+    public static class Cache {
+        private long maximumSize = 10000;
+        // upper bound on how long another instance's stock change can stay invisible here
+        private Duration timeToLive = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Search {
+        private int maxResults = 50;
+    }
+
+    @Data
+    public static class BulkImport {
+        // rows per JDBC batch and per transaction
+        private int batchSize = 1000;
+        private int maxReportedErrors = 1000;
+    }
+
+    @Data
+    public static class VirtualThreads {
+        private Duration pinnedThreshold = Duration.ofMillis(20);
+    }
+
+    @Data
+    public static class Reservations {
+        private Duration defaultTtl = Duration.ofMinutes(15);
+        private Duration maxTtl = Duration.ofHours(1);
+        // expired holds released per transaction by the sweeper
+        private int sweepBatchSize = 500;
+    }
+
+    @Data
+    public static class WriteBehind {
+        private boolean enabled = false;
+        // identifies this instance's checkpoint row, must stay the same across restarts for the journal to replay,
+        // there is no default: a new node id starts from checkpoint 0 and replays decrements already flushed
+        private String nodeId;
+        private String journalDirectory = "stock-journal";
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+        // only for tests and benchmarks: without the fsync a crash can lose acknowledged decrements
+        private boolean syncJournal = true;
+        // the in-memory deltas go to the database after this many decrements, or on the flush interval
+        private int flushOperations = 10000;
+    }
+
+    @Data
+    public static class ReadReplica {
+        private boolean enabled = false;
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        private int maximumPoolSize = 10;
+        // how long a read waits for a replica connection before it falls back to the primary, Hikari's 30s
+        // default would stall every read-only request while the replica is down; 250ms is Hikari's minimum
+        private Duration connectionTimeout = Duration.ofMillis(500);
+        // below connection-timeout, Hikari ignores a larger one
+        private Duration validationTimeout = Duration.ofMillis(250);
+        // read-only transactions go to the primary while the replica is further behind than this
+        private Duration maxLag = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Events {
+        // rows per relay query and per read of a consumer, also the largest long-poll page
+        private int batchSize = 500;
+        // a missing seq older than this belongs to a rolled back transaction, must exceed the longest
+        // transaction that writes events
+        private Duration gapTimeout = Duration.ofSeconds(30);
+        // consumers further behind than this get PRODUCT_EVENTS_EXPIRED and have to re-read the catalog
+        private Duration retention = Duration.ofDays(7);
+        private Duration maxWait = Duration.ofSeconds(60);
+        private Duration streamTimeout = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class RateLimit {
+        private boolean enabled = false;
+        // clients with a bucket in memory, the least recently seen one's is dropped beyond this
+        private long maximumClients = 100000;
+        // the first rule matching a request's method and path applies, requests no rule matches aren't limited
+        private List<Rule> rules = new ArrayList<>();
+
+        @Data
+        public static class Rule {
+            // any method when left out
+            private String method;
+            private String path;
+            // requests a client can send in a burst
+            private int capacity;
+            private double refillPerSecond;
+        }
+    }
+
+    @Data
+    public static class Admission {
+        // writes handled at once, kept below the connection pool so catalog reads still get connections; 0 is no limit
+        private int maxConcurrentWrites = 0;
+        private Duration maxQueueTime = Duration.ofMillis(50);
+    }
+
+    @Data
+    public static class SingleFlight {
+        // how long a read waits for the identical one already running before it queries on its own
+        private Duration maxWait = Duration.ofSeconds(2);
+    }
+}
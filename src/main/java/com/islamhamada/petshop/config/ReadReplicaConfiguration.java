@@ -0,0 +1,72 @@
+package com.islamhamada.petshop.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+// replaces the auto-configured DataSource when product.read-replica.enabled is set: spring.datasource stays
+// the primary, product.read-replica describes the replica, and JPA, JdbcTemplate and the transaction manager
+// all get the routing proxy
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "product.read-replica.enabled", havingValue = "true")
+public class ReadReplicaConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public HikariDataSource replicaDataSource(ProductProperties productProperties) {
+        ProductProperties.ReadReplica readReplica = productProperties.getReadReplica();
+        DataSourceBuilder<HikariDataSource> builder = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(readReplica.getUrl())
+                .username(readReplica.getUsername())
+                .password(readReplica.getPassword());
+        // left out, the driver is derived from the url like for spring.datasource
+        if(readReplica.getDriverClassName() != null)
+            builder.driverClassName(readReplica.getDriverClassName());
+        HikariDataSource dataSource = builder.build();
+        dataSource.setPoolName("replica");
+        dataSource.setMaximumPoolSize(readReplica.getMaximumPoolSize());
+        dataSource.setConnectionTimeout(readReplica.getConnectionTimeout().toMillis());
+        dataSource.setValidationTimeout(readReplica.getValidationTimeout().toMillis());
+        dataSource.setReadOnly(true);
+        // a replica that is down at startup must not keep the service from starting, reads use the primary
+        dataSource.setInitializationFailTimeout(-1);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaHealth replicaHealth(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                       @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                       ProductProperties productProperties, MeterRegistry meterRegistry) {
+        return new ReplicaHealth(primaryDataSource, replicaDataSource, productProperties.getReadReplica().getMaxLag(),
+                meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                 @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                 ReplicaHealth replicaHealth) {
+        return new LazyConnectionDataSourceProxy(
+                new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, replicaHealth));
+    }
+}
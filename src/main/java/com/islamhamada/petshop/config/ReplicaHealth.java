@@ -0,0 +1,76 @@
+package com.islamhamada.petshop.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// beats a timestamp into the primary and reads it back from the replica; the replica is used while its copy
+// is no older than max-lag, so max-lag has to be comfortably above the check interval
+@Log4j2
+public class ReplicaHealth {
+
+    private final JdbcTemplate primary;
+
+    private final JdbcTemplate replica;
+
+    private final Duration maxLag;
+
+    private volatile boolean usable;
+
+    private volatile long lagMillis = -1;
+
+    ReplicaHealth(DataSource primary, DataSource replica, Duration maxLag, MeterRegistry meterRegistry) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.maxLag = maxLag;
+        TimeGauge.builder("product.read_replica.lag", this, TimeUnit.MILLISECONDS, health -> health.lagMillis)
+                .description("Age of the replica's copy of the primary heartbeat, -1 when it couldn't be read")
+                .register(meterRegistry);
+    }
+
+    public boolean isUsable() {
+        return usable;
+    }
+
+    // a failed connection is a failed check, reads stay on the primary until the next one passes
+    public void failed(Exception e) {
+        if(usable)
+            log.warn("Read replica failed, reading from the primary until it recovers: {}", e.getMessage());
+        usable = false;
+    }
+
+    @Scheduled(fixedDelayString = "${product.read-replica.check-interval:1s}")
+    public void check() {
+        long now = System.currentTimeMillis();
+        long seen;
+        try {
+            if(primary.update("update replica_heartbeat set beat = ? where id = 1", now) == 0)
+                primary.update("insert into replica_heartbeat (id, beat) values (1, ?)", now);
+            seen = replica.queryForObject("select beat from replica_heartbeat where id = 1", Long.class);
+        } catch (EmptyResultDataAccessException e) {
+            // the first beat hasn't reached the replica yet
+            lagMillis = -1;
+            usable = false;
+            return;
+        } catch (DataAccessException e) {
+            lagMillis = -1;
+            failed(e);
+            return;
+        }
+        lagMillis = Math.max(0, now - seen);
+        boolean wasUsable = usable;
+        usable = lagMillis <= maxLag.toMillis();
+        if(wasUsable && !usable)
+            log.warn("Read replica is {} ms behind, reading from the primary until it catches up", lagMillis);
+        else if(!wasUsable && usable)
+            log.info("Read replica is {} ms behind, sending read-only transactions to it", lagMillis);
+    }
+}
@@ -0,0 +1,49 @@
+package com.islamhamada.petshop.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+// read-only transactions on the replica while it is healthy, everything else on the primary. Only correct
+// behind a LazyConnectionDataSourceProxy: the transaction manager asks for its connection before the
+// transaction is marked read-only, the proxy defers that until the first statement
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private final DataSource primary;
+
+    private final ReplicaHealth replicaHealth;
+
+    ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReplicaHealth replicaHealth) {
+        this.primary = primary;
+        this.replicaHealth = replicaHealth;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && replicaHealth.isUsable()
+                ? Target.REPLICA : Target.PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if(determineCurrentLookupKey() == Target.PRIMARY)
+            return primary.getConnection();
+        try {
+            return super.getConnection();
+        } catch (SQLException e) {
+            replicaHealth.failed(e);
+            return primary.getConnection();
+        }
+    }
+}
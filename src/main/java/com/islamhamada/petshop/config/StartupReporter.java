@@ -0,0 +1,49 @@
+package com.islamhamada.petshop.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.aot.AotDetector;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// one line per boot with what the startup options were and how long it took from JVM start to ready, the number
+// to compare between the default and the fast-start image; also exported as product.startup.time
+@Component
+@Log4j2
+public class StartupReporter {
+
+    private final Environment environment;
+
+    private final MeterRegistry meterRegistry;
+
+    public StartupReporter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report(ApplicationReadyEvent event) {
+        long sinceJvmStart = ManagementFactory.getRuntimeMXBean().getUptime();
+        List<String> jvmArguments = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        boolean cds = jvmArguments.stream().anyMatch(argument -> argument.startsWith("-XX:SharedArchiveFile"));
+        boolean aot = AotDetector.useGeneratedArtifacts();
+        String profiles = environment.getActiveProfiles().length == 0 ? "default"
+                : String.join(",", environment.getActiveProfiles());
+        boolean lazy = environment.getProperty("spring.main.lazy-initialization", Boolean.class, false);
+        Duration context = event.getTimeTaken();
+        log.info("Ready {} ms after JVM start ({} ms in the application context), profiles: {}, aot: {}, cds: {}, "
+                + "lazy initialization: {}", sinceJvmStart, context == null ? -1 : context.toMillis(), profiles, aot, cds, lazy);
+        TimeGauge.builder("product.startup.time", () -> sinceJvmStart, TimeUnit.MILLISECONDS)
+                .description("Time from JVM start until the application was ready")
+                .tags("profiles", profiles, "aot", Boolean.toString(aot), "cds", Boolean.toString(cds))
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,66 @@
+package com.islamhamada.petshop.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.stream.Collectors;
+
+// a virtual thread that blocks inside synchronized (ours or a library's) keeps its carrier thread, enough of
+// those and the few carriers are all stuck, so every pin longer than the threshold is logged with its stack
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+@Log4j2
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private static final int LOGGED_FRAMES = 8;
+
+    private final RecordingStream recording = new RecordingStream();
+
+    private final Counter pinned;
+
+    public VirtualThreadPinningMonitor(ProductProperties productProperties, MeterRegistry meterRegistry) {
+        pinned = Counter.builder("product.virtual_threads.pinned")
+                .description("Virtual threads that blocked while pinned to their carrier")
+                .register(meterRegistry);
+        recording.enable(PINNED_EVENT)
+                .withThreshold(productProperties.getVirtualThreads().getPinnedThreshold())
+                .withStackTrace();
+        recording.onEvent(PINNED_EVENT, this::pinned);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        recording.startAsync();
+        log.info("Watching for virtual threads pinned longer than the configured threshold");
+    }
+
+    @PreDestroy
+    public void stop() {
+        recording.close();
+    }
+
+    private void pinned(RecordedEvent event) {
+        pinned.increment();
+        String stack = event.getStackTrace() == null ? "no stack trace" : event.getStackTrace().getFrames().stream()
+                .limit(LOGGED_FRAMES)
+                .map(VirtualThreadPinningMonitor::frame)
+                .collect(Collectors.joining("\n\tat "));
+        log.warn("Virtual thread pinned for {} ms\n\tat {}", event.getDuration().toMillis(), stack);
+    }
+
+    private static String frame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
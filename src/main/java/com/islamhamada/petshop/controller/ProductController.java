@@ -1,31 +1,92 @@
 package com.islamhamada.petshop.controller;
 
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.model.BatchReduceQuantityRequest;
+import com.islamhamada.petshop.model.BatchReduceQuantityResponse;
+import com.islamhamada.petshop.model.ProductBatch;
+import com.islamhamada.petshop.model.ProductFacets;
+import com.islamhamada.petshop.model.ProductFilter;
+import com.islamhamada.petshop.model.ProductPage;
 import com.islamhamada.petshop.model.ProductRequest;
 import com.islamhamada.petshop.contracts.model.ReduceQuantityRequest;
 import com.islamhamada.petshop.service.ProductService;
 import com.islamhamada.petshop.contracts.dto.ProductDTO;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.PositiveOrZero;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 @RestController
 @RequestMapping("/product")
 public class ProductController {
 
+    private static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private CatalogVersions catalogVersions;
+
     @GetMapping
-    public List<ProductDTO> getAllProducts() {
+    public List<ProductDTO> getAllProducts(ServletWebRequest webRequest) {
+        // the stamp is read before the products, a change committed in between only costs a spare 200
+        CatalogVersions.Stamp stamp = catalogVersions.catalog();
+        if(notModified(stamp, webRequest))
+            return null;
         return productService.getAllProducts();
     }
 
+    @GetMapping("/page")
+    public ResponseEntity<ProductPage> getProductPage(
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @Positive @RequestParam(name = "size", defaultValue = "20") int size,
+            @Pattern(regexp = "asc|desc") @RequestParam(name = "sort", defaultValue = "asc") String sort,
+            ServletWebRequest webRequest) {
+        CatalogVersions.Stamp stamp = catalogVersions.catalog();
+        if(notModified(stamp, webRequest))
+            return null;
+        ProductPage page = productService.getProductPage(cursor, size, sort);
+        return new ResponseEntity<>(page, HttpStatus.OK);
+    }
+
+    @GetMapping("/filter")
+    public ResponseEntity<ProductPage> getFilteredProducts(
+            @Valid ProductFilter filter,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @Positive @RequestParam(name = "size", defaultValue = "20") int size,
+            @Pattern(regexp = "asc|desc") @RequestParam(name = "sort", defaultValue = "asc") String sort,
+            ServletWebRequest webRequest) {
+        CatalogVersions.Stamp stamp = catalogVersions.catalog();
+        if(notModified(stamp, webRequest))
+            return null;
+        ProductPage page = productService.getFilteredProducts(filter, cursor, size, sort);
+        return new ResponseEntity<>(page, HttpStatus.OK);
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<ProductDTO>> searchProducts(
+            @NotBlank @RequestParam(name = "q") String query,
+            @Positive @RequestParam(name = "limit", defaultValue = "20") int limit) {
+        List<ProductDTO> products = productService.searchProducts(query, limit);
+        return new ResponseEntity<>(products, HttpStatus.OK);
+    }
+
     @PreAuthorize("hasAnyRole('Admin')")
     @PostMapping
     public ProductDTO createProduct(@Valid @RequestBody ProductRequest productRequest) {
@@ -33,11 +94,21 @@ public class ProductController {
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<ProductDTO> getProductById(@PositiveOrZero @PathVariable("id") long id){
+    public ResponseEntity<ProductDTO> getProductById(@PositiveOrZero @PathVariable("id") long id, ServletWebRequest webRequest){
+        CatalogVersions.Stamp stamp = catalogVersions.product(id);
+        if(notModified(stamp, webRequest))
+            return null;
         ProductDTO product = productService.getProductById(id);
         return new ResponseEntity<>(product, HttpStatus.OK);
     }
 
+    // one IN-query for a cart's or order's lines instead of a GET /product/{id} each
+    @GetMapping("/batch")
+    public ResponseEntity<ProductBatch> getProductsByIds(@NotEmpty @RequestParam(name = "ids") List<@PositiveOrZero Long> ids) {
+        ProductBatch batch = productService.getProductsByIds(ids);
+        return new ResponseEntity<>(batch, HttpStatus.OK);
+    }
+
     @PreAuthorize("hasAnyRole('Customer')")
     @PutMapping("/{product_id}")
     public ResponseEntity<Integer> reduceProductQuantity(@PositiveOrZero @PathVariable("product_id") long product_id, @Valid @RequestBody ReduceQuantityRequest request) {
@@ -45,6 +116,21 @@ public class ProductController {
         return new ResponseEntity<>(rv, HttpStatus.OK);
     }
 
+    @PreAuthorize("hasAnyRole('Customer')")
+    @PutMapping("/batch")
+    public ResponseEntity<BatchReduceQuantityResponse> reduceProductQuantities(@Valid @RequestBody BatchReduceQuantityRequest request) {
+        BatchReduceQuantityResponse rv = productService.reduceProductQuantities(request.getLines());
+        return new ResponseEntity<>(rv, rv.isApplied() ? HttpStatus.OK : HttpStatus.CONFLICT);
+    }
+
+    @PreAuthorize("hasAnyRole('Admin')")
+    @PutMapping("/{product_id}/stock-shards")
+    public ResponseEntity<Void> configureStockShards(@PositiveOrZero @PathVariable("product_id") long product_id,
+                                                     @PositiveOrZero @RequestParam(name = "shards") int shards) {
+        productService.configureStockShards(product_id, shards);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
     @GetMapping("/utilities")
     public ResponseEntity<List<String>> getUtilities(){
         List<String> utilities = productService.getUtilities();
@@ -56,4 +142,41 @@ public class ProductController {
         List<String> utilities = productService.getForAnimals();
         return new ResponseEntity<>(utilities, HttpStatus.OK);
     }
+
+    @GetMapping("/facets")
+    public ResponseEntity<ProductFacets> getFacets(){
+        ProductFacets facets = productService.getFacets();
+        return new ResponseEntity<>(facets, HttpStatus.OK);
+    }
+
+    // one stamp is served as JSON, Smile or CBOR; the ETag names the format so a tag from one never gets a 304
+    // for another, and Vary tells shared caches to key on Accept
+    private boolean notModified(CatalogVersions.Stamp stamp, ServletWebRequest webRequest) {
+        webRequest.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        return catalogVersions.settled(stamp)
+                && webRequest.checkNotModified(stamp.etag() + "-" + format(webRequest), stamp.lastModified());
+    }
+
+    // the format content negotiation will pick: the highest quality type among JSON, Smile and CBOR, JSON for
+    // wildcards, a missing header or one that doesn't parse
+    private static String format(ServletWebRequest webRequest) {
+        List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(webRequest.getHeader(HttpHeaders.ACCEPT)));
+        } catch(InvalidMediaTypeException e) {
+            return "json";
+        }
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for(MediaType type : accepted) {
+            if(type.getQualityValue() == 0)
+                break;
+            if(type.isCompatibleWith(MediaType.APPLICATION_JSON))
+                return "json";
+            if(type.equalsTypeAndSubtype(SMILE))
+                return "smile";
+            if(type.equalsTypeAndSubtype(MediaType.APPLICATION_CBOR))
+                return "cbor";
+        }
+        return "json";
+    }
 }
@@ -0,0 +1,114 @@
+package com.islamhamada.petshop.controller;
+
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.model.ProductEventPage;
+import com.islamhamada.petshop.model.ProductEventResponse;
+import com.islamhamada.petshop.service.ProductEventRelay;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+// consumers keep the seq of the last event they handled and follow from there, fetching the changed products
+// with /product/batch, instead of re-reading the whole catalog
+@RestController
+@RequestMapping("/product/events")
+public class ProductEventController {
+
+    @Autowired
+    private ProductEventRelay productEventRelay;
+
+    @Autowired
+    private ProductProperties productProperties;
+
+    // answers as soon as there are events after the seq, or with none once wait_seconds have passed
+    @GetMapping
+    public DeferredResult<ProductEventPage> getEvents(
+            @PositiveOrZero @RequestParam(name = "after", defaultValue = "0") long after,
+            @Positive @RequestParam(name = "limit", defaultValue = "100") int limit,
+            @PositiveOrZero @RequestParam(name = "wait_seconds", defaultValue = "0") long wait_seconds) {
+        productEventRelay.checkNotExpired(after);
+        ProductProperties.Events properties = productProperties.getEvents();
+        int pageSize = Math.min(limit, properties.getBatchSize());
+        if(wait_seconds == 0) {
+            DeferredResult<ProductEventPage> result = new DeferredResult<>();
+            result.setResult(productEventRelay.read(after, pageSize));
+            return result;
+        }
+        Duration wait = Duration.ofSeconds(wait_seconds);
+        if(wait.compareTo(properties.getMaxWait()) > 0)
+            wait = properties.getMaxWait();
+        return new LongPoll(after, pageSize, wait).result;
+    }
+
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(
+            @PositiveOrZero @RequestParam(name = "after", defaultValue = "0") long after,
+            @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+        // a reconnecting EventSource resumes after the last event it received
+        long from = lastEventId != null ? lastEventId : after;
+        productEventRelay.checkNotExpired(from);
+        return new EventStream(from).emitter;
+    }
+
+    private class LongPoll extends ProductEventRelay.Subscription {
+
+        private final DeferredResult<ProductEventPage> result;
+
+        LongPoll(long after, int limit, Duration wait) {
+            super(after, limit);
+            result = new DeferredResult<>(wait.toMillis(), () -> ProductEventPage.builder()
+                    .events(List.of())
+                    .next_seq(position())
+                    .build());
+            result.onCompletion(() -> productEventRelay.unsubscribe(this));
+            productEventRelay.subscribe(this);
+        }
+
+        @Override
+        protected boolean deliver(ProductEventPage page) {
+            result.setResult(page);
+            return false;
+        }
+    }
+
+    private class EventStream extends ProductEventRelay.Subscription {
+
+        private final SseEmitter emitter;
+
+        EventStream(long after) {
+            super(after, productProperties.getEvents().getBatchSize());
+            emitter = new SseEmitter(productProperties.getEvents().getStreamTimeout().toMillis());
+            emitter.onCompletion(() -> productEventRelay.unsubscribe(this));
+            emitter.onTimeout(() -> productEventRelay.unsubscribe(this));
+            emitter.onError(e -> productEventRelay.unsubscribe(this));
+            productEventRelay.subscribe(this);
+        }
+
+        @Override
+        protected boolean deliver(ProductEventPage page) {
+            try {
+                for(ProductEventResponse event : page.getEvents())
+                    emitter.send(SseEmitter.event()
+                            .id(String.valueOf(event.getSeq()))
+                            .name(event.getType())
+                            .data(event, MediaType.APPLICATION_JSON));
+                return true;
+            } catch (IOException e) {
+                // the client went away
+                emitter.completeWithError(e);
+                return false;
+            } catch (IllegalStateException e) {
+                // the emitter timed out or completed meanwhile
+                return false;
+            }
+        }
+    }
+}
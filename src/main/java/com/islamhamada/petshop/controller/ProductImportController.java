@@ -0,0 +1,92 @@
+package com.islamhamada.petshop.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.model.ProductImportResult;
+import com.islamhamada.petshop.model.ProductImportRow;
+import com.islamhamada.petshop.service.ProductService;
+import jakarta.validation.constraints.Pattern;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+@RestController
+@RequestMapping("/product")
+public class ProductImportController {
+
+    private static final String TEXT_CSV_VALUE = "text/csv";
+
+    private static final CsvMapper CSV_MAPPER = CsvMapper.builder()
+            .enable(CsvParser.Feature.EMPTY_STRING_AS_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PreAuthorize("hasAnyRole('Admin')")
+    @PostMapping(value = "/import", consumes = {TEXT_CSV_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ProductImportResult> importProducts(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            @Pattern(regexp = "insert|upsert") @RequestParam(name = "mode", defaultValue = "insert") String mode,
+            InputStream body) throws IOException {
+        // CSV takes a header line naming the columns, NDJSON one product object per line
+        ObjectReader reader = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType)
+                ? objectMapper.readerFor(ProductImportRow.class)
+                : CSV_MAPPER.readerFor(ProductImportRow.class).with(CsvSchema.emptySchema().withHeader());
+        try(MappingIterator<ProductImportRow> rows = reader.readValues(body)) {
+            ProductImportResult rv = productService.importProducts(rows(rows), mode.equals("upsert"));
+            return new ResponseEntity<>(rv, rv.isCompleted() ? HttpStatus.OK : HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+    }
+
+    // rows are parsed one at a time as the importer pulls them, the body is never held in memory
+    private static Iterator<ProductImportRow> rows(MappingIterator<ProductImportRow> rows) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return rows.hasNextValue();
+                } catch (IOException e) {
+                    throw malformed(e);
+                }
+            }
+
+            @Override
+            public ProductImportRow next() {
+                try {
+                    return rows.nextValue();
+                } catch (IOException e) {
+                    throw malformed(e);
+                }
+            }
+        };
+    }
+
+    private static ProductServiceException malformed(IOException e) {
+        String message = e instanceof JsonProcessingException json ? json.getOriginalMessage() : e.getMessage();
+        return new ProductServiceException("Malformed record: " + message, "MALFORMED_IMPORT", HttpStatus.BAD_REQUEST);
+    }
+}
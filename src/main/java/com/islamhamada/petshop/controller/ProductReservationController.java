@@ -0,0 +1,48 @@
+package com.islamhamada.petshop.controller;
+
+import com.islamhamada.petshop.model.ReservationRequest;
+import com.islamhamada.petshop.model.ReservationResponse;
+import com.islamhamada.petshop.service.ProductReservationService;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.PositiveOrZero;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/product")
+public class ProductReservationController {
+
+    @Autowired
+    private ProductReservationService productReservationService;
+
+    @PreAuthorize("hasAnyRole('Customer')")
+    @PostMapping("/{product_id}/reservations")
+    public ResponseEntity<ReservationResponse> reserve(@PositiveOrZero @PathVariable("product_id") long product_id,
+                                                       @Valid @RequestBody ReservationRequest request,
+                                                       @AuthenticationPrincipal Jwt jwt) {
+        ReservationResponse rv = productReservationService.reserve(product_id, request.getAmount(), request.getTtl_seconds(),
+                jwt.getSubject());
+        return new ResponseEntity<>(rv, HttpStatus.CREATED);
+    }
+
+    @PreAuthorize("hasAnyRole('Customer')")
+    @PostMapping("/reservations/{reservation_id}/commit")
+    public ResponseEntity<ReservationResponse> commit(@PositiveOrZero @PathVariable("reservation_id") long reservation_id,
+                                                      @AuthenticationPrincipal Jwt jwt) {
+        ReservationResponse rv = productReservationService.commit(reservation_id, jwt.getSubject());
+        return new ResponseEntity<>(rv, HttpStatus.OK);
+    }
+
+    @PreAuthorize("hasAnyRole('Customer')")
+    @DeleteMapping("/reservations/{reservation_id}")
+    public ResponseEntity<Void> release(@PositiveOrZero @PathVariable("reservation_id") long reservation_id,
+                                        @AuthenticationPrincipal Jwt jwt) {
+        productReservationService.release(reservation_id, jwt.getSubject());
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+}
@@ -2,8 +2,21 @@ package com.islamhamada.petshop.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.Formula;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_product_for_animal_utility_price", columnList = "for_animal, utility, price"),
+        @Index(name = "idx_product_utility_price", columnList = "utility, price"),
+        @Index(name = "idx_product_stock_shards", columnList = "stock_shards")
+})
+@EntityListeners(ProductEntityListener.class)
+// second-level cache, sized in hibernate-cache.conf; stock written with JDBC is evicted through ProductCache
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Data
 @Builder
 @AllArgsConstructor
@@ -17,6 +30,7 @@ public class Product {
     @Column(unique = true)
     private String name;
 
+    // with stock_shards > 0 most of the stock lives in product_stock_shard rows, see shardedQuantity
     private int quantity;
 
     private double price;
@@ -29,4 +43,18 @@ public class Product {
     private String forAnimal;
 
     private String utility;
+
+    @ColumnDefault("0")
+    @Column(name = "stock_shards", nullable = false)
+    private int stockShards;
+
+    @Formula("(case when stock_shards > 0 then "
+            + "(select coalesce(sum(s.quantity), 0) from product_stock_shard s where s.product_id = id) else 0 end)")
+    @Setter(AccessLevel.NONE)
+    private int shardedQuantity;
+
+    // what can still be sold, the one number clients see as quantity
+    public int getAvailableQuantity() {
+        return quantity + shardedQuantity;
+    }
 }
@@ -0,0 +1,57 @@
+package com.islamhamada.petshop.entity;
+
+import com.islamhamada.petshop.service.ProductChangeListener;
+import com.islamhamada.petshop.service.ProductOutbox;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+@Component
+public class ProductEntityListener {
+
+    // resolved lazily, the listeners may themselves depend on the EntityManagerFactory
+    @Autowired
+    private ObjectProvider<ProductChangeListener> productChangeListeners;
+
+    @Autowired
+    private ObjectProvider<ProductOutbox> productOutbox;
+
+    // the event rows go in with the change, the listeners only hear about it once it is committed
+    @PostPersist
+    public void productCreated(Product product) {
+        productOutbox.getObject().record(ProductEvent.Type.CREATED, List.of(product.getId()));
+        afterCommit(() -> productChangeListeners.forEach(listener -> listener.productCreated(product)));
+    }
+
+    @PostUpdate
+    public void productUpdated(Product product) {
+        productOutbox.getObject().record(ProductEvent.Type.UPDATED, List.of(product.getId()));
+        afterCommit(() -> productChangeListeners.forEach(listener -> listener.productUpdated(product)));
+    }
+
+    @PostRemove
+    public void productRemoved(Product product) {
+        productOutbox.getObject().record(ProductEvent.Type.REMOVED, List.of(product.getId()));
+        afterCommit(() -> productChangeListeners.forEach(listener -> listener.productRemoved(product)));
+    }
+
+    private void afterCommit(Runnable runnable) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runnable.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runnable.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,36 @@
+package com.islamhamada.petshop.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+// the outbox: one row per product change, inserted in the transaction that makes the change, so consumers
+// following the seq see exactly the committed changes. The row only names the product, its current state is
+// read from /product/batch
+@Entity
+@Table(name = "product_event")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductEvent {
+
+    public enum Type {
+        CREATED, UPDATED, REMOVED, STOCK
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long seq;
+
+    @Column(name = "product_id", nullable = false)
+    private long productId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Type type;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,36 @@
+package com.islamhamada.petshop.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+// a hold on stock that was already taken off Product.quantity, committing keeps it off and releasing
+// or expiring puts it back, so the available-to-sell check never has to sum open holds
+@Entity
+@Table(name = "product_reservation", indexes = {
+        @Index(name = "idx_product_reservation_expires_at", columnList = "expires_at"),
+        @Index(name = "idx_product_reservation_product_id", columnList = "product_id")
+})
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductReservation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    @Column(name = "product_id", nullable = false)
+    private long productId;
+
+    // the JWT subject that placed the hold, only they can commit or release it
+    @Column(nullable = false)
+    private String customer;
+
+    private int amount;
+
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+}
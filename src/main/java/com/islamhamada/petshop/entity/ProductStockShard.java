@@ -0,0 +1,34 @@
+package com.islamhamada.petshop.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+
+// one slice of a sharded product's stock, checkouts spread over the slices instead of queueing on the product row
+@Entity
+@Table(name = "product_stock_shard")
+@IdClass(ProductStockShard.Key.class)
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductStockShard {
+
+    @Id
+    @Column(name = "product_id")
+    private long productId;
+
+    @Id
+    private int shard;
+
+    private int quantity;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        private long productId;
+        private int shard;
+    }
+}
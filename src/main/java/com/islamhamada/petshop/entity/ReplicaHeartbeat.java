@@ -0,0 +1,21 @@
+package com.islamhamada.petshop.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// written on the primary by ReplicaHealth and read back from the replica, how old the replica's copy is
+// is how far behind the replica is
+@Entity
+@Table(name = "replica_heartbeat")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReplicaHeartbeat {
+
+    @Id
+    private int id;
+
+    // epoch millis, a timestamp column would be converted through the session time zones
+    private long beat;
+}
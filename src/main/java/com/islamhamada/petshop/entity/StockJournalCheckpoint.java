@@ -0,0 +1,21 @@
+package com.islamhamada.petshop.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// last journal sequence of a write-behind node whose stock changes are in the product table, written in the
+// same transaction as the changes so a replay after a crash applies every journaled change exactly once
+@Entity
+@Table(name = "stock_journal_checkpoint")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockJournalCheckpoint {
+
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+
+    private long sequence;
+}
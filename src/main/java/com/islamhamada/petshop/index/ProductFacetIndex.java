@@ -0,0 +1,181 @@
+package com.islamhamada.petshop.index;
+
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.model.ProductFacets;
+import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.service.ProductChangeListener;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Component
+@Log4j2
+public class ProductFacetIndex implements ProductChangeListener {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // held by the one rebuild in flight, a second one skips instead of repeating the same query
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    // each product's facet pair, kept by id so a change the rebuild's query already saw is not counted twice,
+    // guarded by lock
+    private Map<Long, FacetPair> members = new HashMap<>();
+
+    // product count per (for_animal, utility) pair, guarded by lock
+    private Map<FacetPair, Long> counts = new HashMap<>();
+
+    // changes heard while a rebuild is in flight, applied again on top of its result, null otherwise
+    private List<Change> replay;
+
+    // what readers see, rebuilt from counts only after a change
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuild();
+    }
+
+    // catches products written by other instances or straight to the database
+    @Scheduled(fixedDelayString = "${product.facets.refresh-interval:PT5M}", initialDelayString = "${product.facets.refresh-interval:PT5M}")
+    public void rebuild() {
+        if(!rebuilding.tryLock())
+            return;
+        try {
+            log.info("Rebuilding product facet index");
+            lock.lock();
+            try {
+                replay = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            Map<Long, FacetPair> rebuiltMembers = new HashMap<>();
+            Map<FacetPair, Long> rebuiltCounts = new HashMap<>();
+            for(Object[] row : productRepository.getFacetMembers())
+                apply(rebuiltMembers, rebuiltCounts, new Change((Long) row[0], new FacetPair((String) row[1], (String) row[2])));
+            lock.lock();
+            try {
+                // a change committed before the query is already in its result, applying it again changes nothing
+                for(Change change : replay)
+                    apply(rebuiltMembers, rebuiltCounts, change);
+                members = rebuiltMembers;
+                counts = rebuiltCounts;
+                snapshot = Snapshot.of(counts);
+            } finally {
+                lock.unlock();
+            }
+            log.info("Product facet index rebuilt with {} facet pairs", rebuiltCounts.size());
+        } finally {
+            lock.lock();
+            try {
+                replay = null;
+            } finally {
+                lock.unlock();
+            }
+            rebuilding.unlock();
+        }
+    }
+
+    public List<String> getForAnimals() {
+        return snapshot.forAnimals();
+    }
+
+    public List<String> getUtilities() {
+        return snapshot.utilities();
+    }
+
+    public ProductFacets getFacets() {
+        return snapshot.facets();
+    }
+
+    @Override
+    public void productCreated(Product product) {
+        changed(new Change(product.getId(), new FacetPair(product.getForAnimal(), product.getUtility())));
+    }
+
+    @Override
+    public void productUpdated(Product product) {
+        changed(new Change(product.getId(), new FacetPair(product.getForAnimal(), product.getUtility())));
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        changed(new Change(product.getId(), null));
+    }
+
+    private void changed(Change change) {
+        lock.lock();
+        try {
+            if(replay != null)
+                replay.add(change);
+            if(apply(members, counts, change))
+                snapshot = Snapshot.of(counts);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // idempotent, false when the product already had this pair
+    private static boolean apply(Map<Long, FacetPair> members, Map<FacetPair, Long> counts, Change change) {
+        FacetPair previous = change.pair() == null ? members.remove(change.id()) : members.put(change.id(), change.pair());
+        if(Objects.equals(previous, change.pair()))
+            return false;
+        if(previous != null)
+            counts.merge(previous, -1L, (count, d) -> count + d == 0 ? null : count + d);
+        if(change.pair() != null)
+            counts.merge(change.pair(), 1L, Long::sum);
+        return true;
+    }
+
+    // the product's pair after the change, null once it is removed
+    private record Change(long id, FacetPair pair) {
+    }
+
+    private record FacetPair(String forAnimal, String utility) {
+    }
+
+    private record Snapshot(List<String> forAnimals, List<String> utilities, ProductFacets facets) {
+
+        static final Snapshot EMPTY = of(Map.of());
+
+        // products without a for_animal or utility don't contribute a facet value
+        static Snapshot of(Map<FacetPair, Long> counts) {
+            Map<String, Long> forAnimals = new TreeMap<>();
+            Map<String, Long> utilities = new TreeMap<>();
+            Map<String, Map<String, Long>> pairs = new TreeMap<>();
+            counts.forEach((pair, count) -> {
+                if(count <= 0)
+                    return;
+                if(pair.forAnimal() != null)
+                    forAnimals.merge(pair.forAnimal(), count, Long::sum);
+                if(pair.utility() != null)
+                    utilities.merge(pair.utility(), count, Long::sum);
+                if(pair.forAnimal() != null && pair.utility() != null)
+                    pairs.computeIfAbsent(pair.forAnimal(), forAnimal -> new TreeMap<>())
+                            .put(pair.utility(), count);
+            });
+            return new Snapshot(
+                    List.copyOf(forAnimals.keySet()),
+                    List.copyOf(utilities.keySet()),
+                    ProductFacets.builder()
+                            .for_animals(Collections.unmodifiableMap(forAnimals))
+                            .utilities(Collections.unmodifiableMap(utilities))
+                            .for_animal_utilities(Collections.unmodifiableMap(pairs))
+                            .build());
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.islamhamada.petshop.index;
+
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductView;
+import com.islamhamada.petshop.service.ProductChangeListener;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+@Component
+@Log4j2
+public class ProductSearchIndex implements ProductChangeListener {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // a name hit counts as much as two description hits
+    private static final int NAME_BOOST = 2;
+
+    private static final double PREFIX_WEIGHT = 0.8;
+    private static final double FUZZY_WEIGHT = 0.6;
+    private static final int MAX_EXPANSIONS = 50;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // held by the one rebuild in flight, a second one skips instead of reading the table again
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    // guarded by lock
+    private Index index = new Index();
+
+    // changes heard while a rebuild is in flight, applied again on top of its result, null otherwise; guarded by lock
+    private List<Change> replay;
+
+    // the scheduled run catches products written by other instances or straight to the database, like
+    // ProductFacetIndex; both go through the proxy, the stream needs its transaction
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${product.search.refresh-interval:PT5M}", initialDelayString = "${product.search.refresh-interval:PT5M}")
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        if(!rebuilding.tryLock())
+            return;
+        try {
+            log.info("Rebuilding product search index");
+            lock.writeLock().lock();
+            try {
+                replay = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Index rebuilt = new Index();
+            try(Stream<ProductView> products = productRepository.streamAll()) {
+                products.forEach(product -> rebuilt.add(product.id(), terms(product.name(), product.description())));
+            }
+            lock.writeLock().lock();
+            try {
+                // adding and removing a product are idempotent, a change the stream already saw changes nothing
+                for(Change change : replay)
+                    change.applyTo(rebuilt);
+                index = rebuilt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Product search index rebuilt with {} products", rebuilt.documents.size());
+        } finally {
+            lock.writeLock().lock();
+            try {
+                replay = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            rebuilding.unlock();
+        }
+    }
+
+    public List<Long> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if(tokens.isEmpty())
+            return List.of();
+        lock.readLock().lock();
+        try {
+            return index.search(tokens, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void productCreated(Product product) {
+        update(product);
+    }
+
+    @Override
+    public void productUpdated(Product product) {
+        update(product);
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        changed(new Change(product.getId(), null));
+    }
+
+    private void update(Product product) {
+        changed(new Change(product.getId(), terms(product.getName(), product.getDescription())));
+    }
+
+    private void changed(Change change) {
+        lock.writeLock().lock();
+        try {
+            if(replay != null)
+                replay.add(change);
+            change.applyTo(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Map<String, Integer> terms(String name, String description) {
+        Map<String, Integer> terms = new HashMap<>();
+        for(String token : tokenize(name))
+            terms.merge(token, NAME_BOOST, Integer::sum);
+        for(String token : tokenize(description))
+            terms.merge(token, 1, Integer::sum);
+        return terms;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if(text == null)
+            return tokens;
+        for(String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT)))
+            if(!token.isEmpty())
+                tokens.add(token);
+        return tokens;
+    }
+
+    // Levenshtein distance, gives up as soon as every path is longer than max
+    private static int editDistance(String a, String b, int max) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+        for(int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for(int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if(rowMin > max)
+                return max + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private record Document(Set<String> terms, int length) {
+    }
+
+    // the product's terms after the change, null once it is removed
+    private record Change(long id, Map<String, Integer> terms) {
+        void applyTo(Index index) {
+            if(terms == null)
+                index.remove(id);
+            else
+                index.add(id, terms);
+        }
+    }
+
+    private static class Index {
+        // term -> (product id -> term frequency), sorted so prefixes are a range scan
+        private final NavigableMap<String, Map<Long, Integer>> postings = new TreeMap<>();
+        private final Map<Long, Document> documents = new HashMap<>();
+        private long totalLength;
+
+        void add(long id, Map<String, Integer> terms) {
+            remove(id);
+            int length = terms.values().stream().mapToInt(Integer::intValue).sum();
+            documents.put(id, new Document(Set.copyOf(terms.keySet()), length));
+            terms.forEach((term, frequency) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, frequency));
+            totalLength += length;
+        }
+
+        void remove(long id) {
+            Document document = documents.remove(id);
+            if(document == null)
+                return;
+            for(String term : document.terms()) {
+                Map<Long, Integer> products = postings.get(term);
+                products.remove(id);
+                if(products.isEmpty())
+                    postings.remove(term);
+            }
+            totalLength -= document.length();
+        }
+
+        List<Long> search(List<String> tokens, int limit) {
+            if(documents.isEmpty())
+                return List.of();
+            double averageLength = (double) totalLength / documents.size();
+            Map<Long, Double> scores = new HashMap<>();
+            for(String token : tokens) {
+                // a product scores once per query token, through its best matching expansion
+                Map<Long, Double> tokenScores = new HashMap<>();
+                expand(token).forEach((term, weight) -> {
+                    Map<Long, Integer> products = postings.get(term);
+                    double idf = Math.log(1 + (documents.size() - products.size() + 0.5) / (products.size() + 0.5));
+                    products.forEach((id, frequency) -> {
+                        double length = documents.get(id).length();
+                        double score = weight * idf * frequency * (K1 + 1)
+                                / (frequency + K1 * (1 - B + B * length / averageLength));
+                        tokenScores.merge(id, score, Math::max);
+                    });
+                });
+                tokenScores.forEach((id, score) -> scores.merge(id, score, Double::sum));
+            }
+            return scores.entrySet().stream()
+                    .sorted((a, b) -> {
+                        int byScore = Double.compare(b.getValue(), a.getValue());
+                        return byScore != 0 ? byScore : Long.compare(a.getKey(), b.getKey());
+                    })
+                    .limit(limit)
+                    .map(Map.Entry::getKey)
+                    .toList();
+        }
+
+        private Map<String, Double> expand(String token) {
+            Map<String, Double> terms = new HashMap<>();
+            if(postings.containsKey(token))
+                terms.put(token, 1.0);
+            for(String term : postings.subMap(token, false, token + Character.MAX_VALUE, false).keySet()) {
+                if(terms.size() >= MAX_EXPANSIONS)
+                    break;
+                terms.put(term, PREFIX_WEIGHT);
+            }
+            int maxEdits = token.length() >= 8 ? 2 : token.length() >= 4 ? 1 : 0;
+            if(maxEdits == 0)
+                return terms;
+            // typos rarely hit the first letter, which keeps the scan to one slice of the dictionary
+            String first = token.substring(0, 1);
+            for(String term : postings.subMap(first, true, first + Character.MAX_VALUE, false).keySet()) {
+                if(terms.size() >= MAX_EXPANSIONS)
+                    break;
+                if(!terms.containsKey(term)
+                        && Math.abs(term.length() - token.length()) <= maxEdits
+                        && editDistance(token, term, maxEdits) <= maxEdits)
+                    terms.put(term, FUZZY_WEIGHT);
+            }
+            return terms;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.islamhamada.petshop.model;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchReduceQuantityRequest {
+    @NotEmpty
+    @Size(max = 500)
+    private List<@Valid ReduceQuantityLine> lines;
+}
@@ -0,0 +1,17 @@
+package com.islamhamada.petshop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchReduceQuantityResponse {
+    private boolean applied;
+    private List<ReduceQuantityResult> results;
+}
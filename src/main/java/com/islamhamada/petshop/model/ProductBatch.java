@@ -0,0 +1,18 @@
+package com.islamhamada.petshop.model;
+
+import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductBatch {
+    private List<ProductDTO> products;
+    private List<Long> missing;
+}
@@ -0,0 +1,18 @@
+package com.islamhamada.petshop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductEventPage {
+    private List<ProductEventResponse> events;
+    // the after of the next request, past the returned events and any rolled back seq
+    private long next_seq;
+}
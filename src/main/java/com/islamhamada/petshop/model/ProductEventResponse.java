@@ -0,0 +1,19 @@
+package com.islamhamada.petshop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductEventResponse {
+    private long seq;
+    private long product_id;
+    private String type;
+    private Instant created_at;
+}
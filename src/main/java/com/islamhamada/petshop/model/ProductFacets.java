@@ -0,0 +1,18 @@
+package com.islamhamada.petshop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductFacets {
+    private Map<String, Long> for_animals;
+    private Map<String, Long> utilities;
+    private Map<String, Map<String, Long>> for_animal_utilities;
+}
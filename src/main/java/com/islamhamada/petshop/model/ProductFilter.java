@@ -0,0 +1,21 @@
+package com.islamhamada.petshop.model;
+
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductFilter {
+    private String for_animal;
+    private String utility;
+    @PositiveOrZero
+    private Double min_price;
+    @PositiveOrZero
+    private Double max_price;
+    private boolean in_stock;
+}
@@ -0,0 +1,22 @@
+package com.islamhamada.petshop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductImportResult {
+    private long rows;
+    private long inserted;
+    private long updated;
+    private long failed;
+    // false when the input broke off at a malformed record, the batches before it stay imported
+    private boolean completed;
+    private List<ProductImportError> errors;
+}
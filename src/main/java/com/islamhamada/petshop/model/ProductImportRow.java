@@ -0,0 +1,28 @@
+package com.islamhamada.petshop.model;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductImportRow {
+    @NotBlank
+    private String name;
+    @NotNull
+    @PositiveOrZero
+    private Integer quantity;
+    @NotNull
+    @PositiveOrZero
+    private Double price;
+    private String description;
+    private String image;
+    private String for_animal;
+    private String utility;
+}
@@ -0,0 +1,17 @@
+package com.islamhamada.petshop.model;
+
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReduceQuantityLine {
+    @PositiveOrZero
+    private long product_id;
+    @Positive
+    private int amount;
+}
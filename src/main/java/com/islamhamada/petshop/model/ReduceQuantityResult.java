@@ -0,0 +1,17 @@
+package com.islamhamada.petshop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReduceQuantityResult {
+    private long product_id;
+    private int amount;
+    private String error_code;
+    private String error_message;
+}
@@ -0,0 +1,19 @@
+package com.islamhamada.petshop.model;
+
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReservationRequest {
+    @Positive
+    private int amount;
+    // optional, defaults to product.reservations.default-ttl and is capped by max-ttl
+    @Positive
+    private Long ttl_seconds;
+}
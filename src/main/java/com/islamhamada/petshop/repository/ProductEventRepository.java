@@ -0,0 +1,32 @@
+package com.islamhamada.petshop.repository;
+
+import com.islamhamada.petshop.entity.ProductEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ProductEventRepository extends JpaRepository<ProductEvent, Long> {
+
+    @Query("select e from ProductEvent e where e.seq > :after and e.seq <= :upTo order by e.seq asc")
+    public List<ProductEvent> findBetween(@Param("after") long after, @Param("upTo") long upTo, Pageable pageable);
+
+    @Query("select e from ProductEvent e where e.seq > :after order by e.seq asc")
+    public List<ProductEvent> findAfter(@Param("after") long after, Pageable pageable);
+
+    @Query("select coalesce(max(e.seq), 0) from ProductEvent e where e.createdAt < :before")
+    public long findLastSeqBefore(@Param("before") Instant before);
+
+    @Query("select min(e.seq) from ProductEvent e")
+    public Long findFirstSeq();
+
+    @Modifying
+    @Query("delete from ProductEvent e where e.seq < :below and e.createdAt < :before")
+    public int deleteOlder(@Param("below") long below, @Param("before") Instant before);
+}
@@ -1,21 +1,61 @@
 package com.islamhamada.petshop.repository;
 
 import com.islamhamada.petshop.entity.Product;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface ProductRepository extends JpaRepository<Product, Long> {
+public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpecificationExecutor<Product> {
 
-    @Query("select distinct utility from Product")
-    public List<String> getDistinctUtilities();
+    // reads that only hand data out select straight into ProductView, skipping managed entities and their snapshots
+    String PRODUCT_VIEW = "select new com.islamhamada.petshop.repository.ProductView("
+            + "p.id, p.name, p.quantity + p.shardedQuantity, p.price, p.description, p.image, p.forAnimal, p.utility) from Product p";
 
-    @Query("select distinct forAnimal from Product")
-    public List<String> getDistinctForAnimals();
+    // not through the query cache, ProductFacetIndex's scheduled rebuild is there to see other instances' writes
+    @Query("select id, forAnimal, utility from Product")
+    public List<Object[]> getFacetMembers();
 
+    // the name lookup goes through the query cache, Hibernate drops its results whenever it writes to product
+    // and ProductCache does the same for rows created or changed with JDBC
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     public Optional<Product> findByName(String name);
+
+    // GET /product and GET /product/{id} call these outside a service transaction, this one still routes them to
+    // a read replica; callers that must see the primary's rows, like WriteBehindStock, don't read through them
+    @Transactional(readOnly = true)
+    @Query(PRODUCT_VIEW + " where p.id > :after order by p.id asc")
+    public List<ProductView> findPageAfter(@Param("after") long after, Pageable pageable);
+
+    @Query(PRODUCT_VIEW + " where p.id < :before order by p.id desc")
+    public List<ProductView> findPageBefore(@Param("before") long before, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(PRODUCT_VIEW + " where p.id = :id")
+    public Optional<ProductView> findViewById(@Param("id") long id);
+
+    // GET /product/batch reads its cache misses through here outside a service transaction
+    @Transactional(readOnly = true)
+    @Query(PRODUCT_VIEW + " where p.id in :ids")
+    public List<ProductView> findViewsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query(PRODUCT_VIEW + " where p.name in :names")
+    public List<ProductView> findViewsByNameIn(@Param("names") Collection<String> names);
+
+    // forward-only, the MySQL driver only honours the fetch size with useCursorFetch=true
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query(PRODUCT_VIEW + " order by p.id asc")
+    public Stream<ProductView> streamAll();
 }
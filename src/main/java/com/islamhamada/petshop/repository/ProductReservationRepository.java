@@ -0,0 +1,36 @@
+package com.islamhamada.petshop.repository;
+
+import com.islamhamada.petshop.entity.ProductReservation;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ProductReservationRepository extends JpaRepository<ProductReservation, Long> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from ProductReservation r where r.id = :id and r.customer = :customer")
+    public Optional<ProductReservation> findForUpdateByIdAndCustomer(@Param("id") long id, @Param("customer") String customer);
+
+    // walks idx_product_reservation_expires_at from the oldest hold, rows another sweeper holds are skipped
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select r from ProductReservation r where r.expiresAt <= :now order by r.expiresAt asc")
+    public List<ProductReservation> findExpired(@Param("now") Instant now, Pageable pageable);
+
+    @Modifying
+    @Query("delete from ProductReservation r where r.id in :ids")
+    public int deleteByIds(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,35 @@
+package com.islamhamada.petshop.repository;
+
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.model.ProductFilter;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductSpecifications {
+
+    // predicates follow the (for_animal, utility, price) column order of the composite index
+    public static Specification<Product> matching(ProductFilter filter) {
+        List<Specification<Product>> specifications = new ArrayList<>();
+        if(filter.getFor_animal() != null)
+            specifications.add((root, query, cb) -> cb.equal(root.get("forAnimal"), filter.getFor_animal()));
+        if(filter.getUtility() != null)
+            specifications.add((root, query, cb) -> cb.equal(root.get("utility"), filter.getUtility()));
+        if(filter.getMin_price() != null)
+            specifications.add((root, query, cb) -> cb.greaterThanOrEqualTo(root.get("price"), filter.getMin_price()));
+        if(filter.getMax_price() != null)
+            specifications.add((root, query, cb) -> cb.lessThanOrEqualTo(root.get("price"), filter.getMax_price()));
+        if(filter.isIn_stock())
+            specifications.add((root, query, cb) -> cb.greaterThan(cb.sum(root.get("quantity"), root.get("shardedQuantity")), 0));
+        return Specification.allOf(specifications);
+    }
+
+    public static Specification<Product> idAfter(long id) {
+        return (root, query, cb) -> cb.greaterThan(root.get("id"), id);
+    }
+
+    public static Specification<Product> idBefore(long id) {
+        return (root, query, cb) -> cb.lessThan(root.get("id"), id);
+    }
+}
@@ -0,0 +1,13 @@
+package com.islamhamada.petshop.repository;
+
+// read-only row built straight from a JPQL constructor expression, never managed by the persistence context
+public record ProductView(
+        long id,
+        String name,
+        int quantity,
+        double price,
+        String description,
+        String image,
+        String forAnimal,
+        String utility) {
+}
@@ -0,0 +1,135 @@
+package com.islamhamada.petshop.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// a token bucket per client and rule, checked after BearerTokenAuthenticationFilter so the client is the JWT
+// subject; calls without a token share one per remote address. A bucket idle long enough to have refilled
+// is worth nothing, so that is how long buckets are kept
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private record Rule(String name, HttpMethod method, PathPattern path, int capacity, double refillPerNano,
+                        Counter rejected) {
+    }
+
+    private final boolean enabled;
+
+    private final List<Rule> rules;
+
+    private final Cache<String, TokenBucket> buckets;
+
+    private final ObjectMapper objectMapper;
+
+    public RateLimitFilter(ProductProperties.RateLimit rateLimit, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.enabled = rateLimit.isEnabled();
+        this.objectMapper = objectMapper;
+        this.rules = rateLimit.getRules().stream().map(rule -> {
+            String name = (rule.getMethod() == null ? "" : rule.getMethod() + " ") + rule.getPath();
+            return new Rule(name,
+                    rule.getMethod() == null ? null : HttpMethod.valueOf(rule.getMethod()),
+                    PathPatternParser.defaultInstance.parse(rule.getPath()),
+                    rule.getCapacity(),
+                    rule.getRefillPerSecond() / TimeUnit.SECONDS.toNanos(1),
+                    Counter.builder("product.rate_limit.rejected")
+                            .tag("rule", name)
+                            .register(meterRegistry));
+        }).toList();
+        double refillSeconds = rateLimit.getRules().stream()
+                .mapToDouble(rule -> rule.getCapacity() / rule.getRefillPerSecond())
+                .max().orElse(0);
+        buckets = Caffeine.newBuilder()
+                .maximumSize(rateLimit.getMaximumClients())
+                .expireAfterAccess(Duration.ofSeconds((long) Math.ceil(Math.min(refillSeconds, TimeUnit.DAYS.toSeconds(1))) + 1))
+                .build();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Rule rule = match(request);
+        if(rule == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        long waitNanos = buckets.get(rule.name() + " " + client(request), key -> new TokenBucket(rule)).take();
+        if(waitNanos == 0) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        rule.rejected().increment();
+        long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        Rejections.reject(response, objectMapper, new ProductServiceException(
+                "Too many requests to " + rule.name() + ", retry in " + retryAfter + " seconds",
+                "RATE_LIMITED", HttpStatus.TOO_MANY_REQUESTS), retryAfter);
+    }
+
+    private Rule match(HttpServletRequest request) {
+        PathContainer path = PathContainer.parsePath(request.getRequestURI());
+        for(Rule rule : rules)
+            if((rule.method() == null || rule.method().matches(request.getMethod())) && rule.path().matches(path))
+                return rule;
+        return null;
+    }
+
+    private static String client(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if(authentication instanceof JwtAuthenticationToken token)
+            return "sub:" + token.getName();
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private static class TokenBucket {
+
+        private final int capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(Rule rule) {
+            capacity = rule.capacity();
+            refillPerNano = rule.refillPerNano();
+            tokens = capacity;
+            refilledAt = System.nanoTime();
+        }
+
+        // 0 when a token was taken, otherwise the nanos until the next one
+        synchronized long take() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * refillPerNano);
+            refilledAt = now;
+            if(tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / refillPerNano));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.islamhamada.petshop.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.islamhamada.petshop.contracts.model.RestExceptionResponse;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+
+// the filters answer before any controller runs, in the same body ResResponseEntityExceptionHandler writes
+final class Rejections {
+
+    private Rejections() {
+    }
+
+    static void reject(HttpServletResponse response, ObjectMapper objectMapper, ProductServiceException exception,
+                       long retryAfterSeconds) throws IOException {
+        response.setStatus(exception.getHttpStatus().value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), RestExceptionResponse.builder()
+                .error_code(exception.getError_code())
+                .error_message(exception.getMessage())
+                .build());
+    }
+}
@@ -1,5 +1,8 @@
 package com.islamhamada.petshop.security;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.islamhamada.petshop.config.ProductProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
@@ -10,6 +13,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 import java.util.Collection;
@@ -21,13 +25,19 @@ import java.util.stream.Collectors;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain defaultSecurityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain defaultSecurityFilterChain(HttpSecurity http, ProductProperties productProperties,
+                                                          ObjectMapper objectMapper, MeterRegistry meterRegistry) throws Exception {
         http.csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(auth -> auth
                         .anyRequest().permitAll()
                 ).oauth2ResourceServer(conf -> conf.jwt(
                         jwt -> jwt.jwtAuthenticationConverter(converter())
-                ));
+                ))
+                // once the token is resolved, and rate limited requests never take a write slot
+                .addFilterAfter(new RateLimitFilter(productProperties.getRateLimit(), objectMapper, meterRegistry),
+                        BearerTokenAuthenticationFilter.class)
+                .addFilterAfter(new WriteAdmissionFilter(productProperties.getAdmission(), objectMapper, meterRegistry),
+                        RateLimitFilter.class);
 
         return http.build();
     }
@@ -0,0 +1,77 @@
+package com.islamhamada.petshop.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// caps the writes in progress below the connection pool: past max-concurrent-writes a write waits at most
+// max-queue-time and is then turned away with a 503, so a flood of checkouts can't take every connection and
+// leave the catalog reads queueing on the pool
+public class WriteAdmissionFilter extends OncePerRequestFilter {
+
+    private final int maxConcurrentWrites;
+
+    private final long maxQueueNanos;
+
+    private final Semaphore permits;
+
+    private final Counter rejected;
+
+    private final ObjectMapper objectMapper;
+
+    public WriteAdmissionFilter(ProductProperties.Admission admission, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.maxConcurrentWrites = admission.getMaxConcurrentWrites();
+        this.maxQueueNanos = admission.getMaxQueueTime().toNanos();
+        this.permits = new Semaphore(maxConcurrentWrites);
+        this.objectMapper = objectMapper;
+        this.rejected = Counter.builder("product.admission.rejected")
+                .register(meterRegistry);
+        Gauge.builder("product.admission.writes", permits, semaphore -> maxConcurrentWrites - semaphore.availablePermits())
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if(maxConcurrentWrites == 0)
+            return true;
+        HttpMethod method = HttpMethod.valueOf(request.getMethod());
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean admitted;
+        try {
+            admitted = permits.tryAcquire(maxQueueNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if(!admitted) {
+            rejected.increment();
+            Rejections.reject(response, objectMapper, new ProductServiceException(
+                    "Too many writes in progress, retry shortly", "OVERLOADED", HttpStatus.SERVICE_UNAVAILABLE), 1);
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.entity.Product;
+
+// notified after commit whenever a Product entity is written through JPA,
+// bulk updates that bypass the persistence context have to notify explicitly
+public interface ProductChangeListener {
+    void productCreated(Product product);
+    void productUpdated(Product product);
+    void productRemoved(Product product);
+}
@@ -0,0 +1,44 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.exception.ProductServiceException;
+import org.springframework.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+record ProductCursor(String sort, long lastId) {
+
+    static ProductCursor first(String sort) {
+        return new ProductCursor(sort, "desc".equals(sort) ? Long.MAX_VALUE : Long.MIN_VALUE);
+    }
+
+    static ProductCursor decode(String cursor, String sort) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw invalid(cursor);
+        }
+        int separator = decoded.indexOf(':');
+        if(separator < 0 || !decoded.substring(0, separator).equals(sort))
+            throw invalid(cursor);
+        try {
+            return new ProductCursor(sort, Long.parseLong(decoded.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw invalid(cursor);
+        }
+    }
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((sort + ":" + lastId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    boolean descending() {
+        return "desc".equals(sort);
+    }
+
+    private static ProductServiceException invalid(String cursor) {
+        return new ProductServiceException("Invalid cursor: " + cursor, "INVALID_CURSOR", HttpStatus.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,24 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.exception.ProductServiceException;
+import org.springframework.http.HttpStatus;
+
+// the business errors more than one service throws, built in one place so their messages, codes and
+// error counters can't drift apart
+final class ProductErrors {
+
+    private ProductErrors() {
+    }
+
+    static ProductServiceException productNotFound(ProductMetrics productMetrics, long id) {
+        productMetrics.error("NOT_FOUND");
+        return new ProductServiceException("Product not found with id: " + id, "NOT_FOUND", HttpStatus.NOT_FOUND);
+    }
+
+    static ProductServiceException quantityTooHigh(ProductMetrics productMetrics, long id, long amount) {
+        productMetrics.error("QUANTITY_ERROR");
+        return new ProductServiceException(
+                "A product can't have a negative quantity. Amount of " + amount + " is too high for product with id: " + id,
+                "QUANTITY_ERROR", HttpStatus.CONFLICT);
+    }
+}
@@ -0,0 +1,207 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.entity.ProductEvent;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.model.ProductEventPage;
+import com.islamhamada.petshop.repository.ProductEventRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// follows product_event and wakes the consumers waiting on this instance, SSE streams and long-polls, which
+// then read their next events from the table. A seq is taken when its row is inserted but only shows at commit,
+// so a lower seq can appear after a higher one: the head only moves over a missing seq once the row behind it
+// is older than gap-timeout, by then the transaction that took the seq has rolled back
+@Component
+@Log4j2
+public class ProductEventRelay implements DisposableBean {
+
+    @Autowired
+    private ProductEventRepository productEventRepository;
+
+    @Autowired
+    private ProductProperties productProperties;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    // a consumer's slow socket must not hold up the relay or the other consumers
+    private final ExecutorService deliveries = Executors.newVirtualThreadPerTaskExecutor();
+
+    // the scheduler never overlaps its own runs, this covers direct calls; not a monitor, the relay runs JDBC
+    // and a virtual thread blocked inside synchronized would pin its carrier
+    private final ReentrantLock relayLock = new ReentrantLock();
+
+    // every seq up to here is either committed or rolled back for good, -1 until the first relay
+    private volatile long head = -1;
+
+    public ProductEventRelay(MeterRegistry meterRegistry) {
+        Gauge.builder("product.events.subscriptions", subscriptions, Set::size)
+                .register(meterRegistry);
+        Gauge.builder("product.events.head", this, relay -> relay.head)
+                .register(meterRegistry);
+    }
+
+    // a consumer waiting for the events after its position
+    public abstract static class Subscription {
+        private final int limit;
+        private final AtomicBoolean delivering = new AtomicBoolean();
+        private volatile long position;
+
+        protected Subscription(long after, int limit) {
+            this.position = after;
+            this.limit = limit;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        // false once the consumer is gone or wants no more events, the subscription ends then
+        protected abstract boolean deliver(ProductEventPage page);
+    }
+
+    @Scheduled(fixedDelayString = "${product.events.relay-interval:100ms}")
+    public void relay() {
+        relayLock.lock();
+        try {
+            ProductProperties.Events properties = productProperties.getEvents();
+            Instant settled = Instant.now().minus(properties.getGapTimeout());
+            long from = head;
+            long to = from;
+            if(from < 0)
+                // other instances' open transactions may still commit lower seqs, start behind them
+                to = onPrimary(() -> productEventRepository.findLastSeqBefore(settled));
+            List<ProductEvent> events;
+            Set<Long> changed = new HashSet<>();
+            boolean gap = false;
+            do {
+                long after = to;
+                events = onPrimary(() -> productEventRepository.findAfter(after,
+                        PageRequest.of(0, properties.getBatchSize())));
+                for(ProductEvent event : events) {
+                    if(event.getSeq() != to + 1 && event.getCreatedAt().isAfter(settled)) {
+                        gap = true;
+                        break;
+                    }
+                    to = event.getSeq();
+                    changed.add(event.getProductId());
+                }
+            } while(!gap && events.size() == properties.getBatchSize());
+            head = to;
+            // the only place this instance hears of other instances' writes, their ETags must not stay current
+            catalogVersions.relayed(changed);
+            if(to > from)
+                subscriptions.forEach(this::schedule);
+        } finally {
+            relayLock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product.events.prune-interval:10m}")
+    public void prune() {
+        long upTo = head;
+        if(upTo <= 0)
+            return;
+        // the head's row stays, so a consumer that is up to date never looks expired
+        Instant before = Instant.now().minus(productProperties.getEvents().getRetention());
+        int pruned = onPrimary(() -> productEventRepository.deleteOlder(upTo, before));
+        if(pruned > 0)
+            log.info("Pruned {} product events older than {}", pruned, before);
+    }
+
+    // the events after the given seq that are relayed already, at most limit of them
+    public ProductEventPage read(long after, int limit) {
+        long upTo = head;
+        if(upTo <= after)
+            return page(List.of(), after);
+        List<ProductEvent> events = onPrimary(() -> productEventRepository.findBetween(after, upTo, PageRequest.of(0, limit)));
+        // fewer rows than asked for means everything up to the head was read, the seqs in between rolled back
+        return page(events, events.size() < limit ? upTo : events.getLast().getSeq());
+    }
+
+    public void checkNotExpired(long after) {
+        Long first = onPrimary(() -> productEventRepository.findFirstSeq());
+        if(first != null && after < first - 1)
+            throw new ProductServiceException(
+                    "Events after seq " + after + " are no longer kept, re-read the catalog and follow from seq "
+                            + (first - 1), "EVENTS_EXPIRED", HttpStatus.GONE);
+    }
+
+    public void subscribe(Subscription subscription) {
+        subscriptions.add(subscription);
+        schedule(subscription);
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    @Override
+    public void destroy() {
+        deliveries.shutdownNow();
+    }
+
+    private void schedule(Subscription subscription) {
+        if(head > subscription.position && subscription.delivering.compareAndSet(false, true))
+            deliveries.execute(() -> drain(subscription));
+    }
+
+    private void drain(Subscription subscription) {
+        try {
+            while(subscriptions.contains(subscription) && head > subscription.position) {
+                ProductEventPage page = read(subscription.position, subscription.limit);
+                subscription.position = page.getNext_seq();
+                if(!page.getEvents().isEmpty() && !subscription.deliver(page))
+                    unsubscribe(subscription);
+            }
+        } catch (RuntimeException e) {
+            // the subscription stays, the next relay that moves the head tries again
+            log.warn("Could not read product events after seq {}", subscription.position, e);
+            return;
+        } finally {
+            subscription.delivering.set(false);
+        }
+        // the head may have moved after the last read, while schedule() still saw this drain running
+        if(subscriptions.contains(subscription))
+            schedule(subscription);
+    }
+
+    private ProductEventPage page(List<ProductEvent> events, long next) {
+        return ProductEventPage.builder()
+                .events(events.stream().map(ProductMapper::toProductEventResponse).toList())
+                .next_seq(next)
+                .build();
+    }
+
+    // the head is found on the primary; read-only transactions would go to a read replica, where a lagging
+    // copy can still miss a seq below it
+    private <T> T onPrimary(Supplier<T> query) {
+        return transactionTemplate.execute(status -> query.get());
+    }
+}
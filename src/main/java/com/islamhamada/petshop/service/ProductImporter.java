@@ -0,0 +1,286 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.entity.ProductEvent;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.model.ProductImportError;
+import com.islamhamada.petshop.model.ProductImportResult;
+import com.islamhamada.petshop.model.ProductImportRow;
+import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductView;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// every batch commits on its own, so a feed of any length never holds one long transaction or a
+// persistence context full of entities
+@Component
+@Log4j2
+class ProductImporter {
+
+    private static final String INSERT = "insert into product (name, quantity, price, description, image, for_animal, utility) "
+            + "values (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE = "update product set quantity = ?, price = ?, description = ?, image = ?, "
+            + "for_animal = ?, utility = ? where id = ?";
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductProperties productProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ProductStock productStock;
+
+    @Autowired
+    private ProductOutbox productOutbox;
+
+    // rows written with JDBC skip the entity listener, so the cache and the indexes are told directly
+    @Autowired
+    private ObjectProvider<ProductChangeListener> productChangeListeners;
+
+    private record Line(long row, ProductImportRow product) {
+    }
+
+    private record Written(Line line, long id, boolean inserted) {
+    }
+
+    private record BatchOutcome(List<Written> written, List<ProductImportError> errors) {
+    }
+
+    public ProductImportResult importProducts(Iterator<ProductImportRow> rows, boolean upsert) {
+        int batchSize = productProperties.getBulkImport().getBatchSize();
+        ProductImportResult result = ProductImportResult.builder()
+                .completed(true)
+                .errors(new ArrayList<>())
+                .build();
+        List<Line> batch = new ArrayList<>(batchSize);
+        while(true) {
+            ProductImportRow next;
+            try {
+                if(!rows.hasNext())
+                    break;
+                next = rows.next();
+            } catch (ProductServiceException e) {
+                // a broken record leaves the parser without a reliable position, so the import stops here
+                result.setRows(result.getRows() + 1);
+                fail(result, result.getRows(), null, e);
+                result.setCompleted(false);
+                break;
+            }
+            result.setRows(result.getRows() + 1);
+            ProductServiceException invalid = validate(next);
+            if(invalid != null) {
+                fail(result, result.getRows(), next.getName(), invalid);
+                continue;
+            }
+            batch.add(new Line(result.getRows(), next));
+            if(batch.size() == batchSize) {
+                flush(batch, upsert, result);
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty())
+            flush(batch, upsert, result);
+        return result;
+    }
+
+    private void flush(List<Line> batch, boolean upsert, ProductImportResult result) {
+        // the unique constraint can only see rows from earlier batches, repeats within this one are caught here
+        Map<String, Line> lines = new LinkedHashMap<>();
+        for(Line line : batch)
+            if(lines.putIfAbsent(line.product().getName(), line) != null)
+                fail(result, line.row(), line.product().getName(), duplicateInFeed(line.product().getName()));
+        BatchOutcome outcome;
+        try {
+            outcome = transactionTemplate.execute(status -> write(lines, upsert));
+        } catch (DuplicateKeyException e) {
+            // a name was created concurrently, or only collides under the column's collation, settle the batch row by row
+            outcome = writeOneByOne(lines, upsert);
+        }
+        for(ProductImportError error : outcome.errors())
+            fail(result, error);
+        for(Written written : outcome.written()) {
+            Product product = toProduct(written);
+            if(written.inserted()) {
+                result.setInserted(result.getInserted() + 1);
+                productChangeListeners.forEach(listener -> listener.productCreated(product));
+            } else {
+                result.setUpdated(result.getUpdated() + 1);
+                productChangeListeners.forEach(listener -> listener.productUpdated(product));
+            }
+        }
+        log.info("Import progress: {} rows read, {} inserted, {} updated, {} failed",
+                result.getRows(), result.getInserted(), result.getUpdated(), result.getFailed());
+    }
+
+    private BatchOutcome writeOneByOne(Map<String, Line> lines, boolean upsert) {
+        List<Written> written = new ArrayList<>(lines.size());
+        List<ProductImportError> errors = new ArrayList<>();
+        for(Line line : lines.values()) {
+            try {
+                BatchOutcome outcome = transactionTemplate.execute(status -> write(Map.of(line.product().getName(), line), upsert));
+                written.addAll(outcome.written());
+                errors.addAll(outcome.errors());
+            } catch (DuplicateKeyException e) {
+                errors.add(error(line.row(), line.product().getName(), nameAlreadyTaken(line.product().getName())));
+            }
+        }
+        return new BatchOutcome(written, errors);
+    }
+
+    private BatchOutcome write(Map<String, Line> lines, boolean upsert) {
+        Map<String, ProductView> existing = productRepository.findViewsByNameIn(lines.keySet()).stream()
+                .collect(Collectors.toMap(ProductView::name, Function.identity()));
+        List<Line> inserts = new ArrayList<>();
+        List<Written> updates = new ArrayList<>();
+        List<ProductImportError> errors = new ArrayList<>();
+        for(Line line : lines.values()) {
+            ProductView product = existing.get(line.product().getName());
+            if(product == null)
+                inserts.add(line);
+            else if(upsert)
+                updates.add(new Written(line, product.id(), false));
+            else
+                errors.add(error(line.row(), line.product().getName(), nameAlreadyTaken(line.product().getName())));
+        }
+        List<Written> written = new ArrayList<>(lines.size());
+        if(!inserts.isEmpty()) {
+            GeneratedKeyHolder keys = new GeneratedKeyHolder();
+            jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT, new String[]{"id"}),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            ProductImportRow product = inserts.get(i).product();
+                            ps.setString(1, product.getName());
+                            ps.setInt(2, product.getQuantity());
+                            ps.setDouble(3, product.getPrice());
+                            ps.setString(4, product.getDescription());
+                            ps.setString(5, product.getImage());
+                            ps.setString(6, product.getFor_animal());
+                            ps.setString(7, product.getUtility());
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return inserts.size();
+                        }
+                    }, keys);
+            // MySQL reports the key as GENERATED_KEY and H2 as ID, there is exactly one per row either way
+            List<Map<String, Object>> keyList = keys.getKeyList();
+            for(int i = 0; i < inserts.size(); i++)
+                written.add(new Written(inserts.get(i), ((Number) keyList.get(i).values().iterator().next()).longValue(), true));
+        }
+        if(!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Written update = updates.get(i);
+                    ProductImportRow product = update.line().product();
+                    ps.setInt(1, product.getQuantity());
+                    ps.setDouble(2, product.getPrice());
+                    ps.setString(3, product.getDescription());
+                    ps.setString(4, product.getImage());
+                    ps.setString(5, product.getFor_animal());
+                    ps.setString(6, product.getUtility());
+                    ps.setLong(7, update.id());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return updates.size();
+                }
+            });
+            for(Written update : updates)
+                productStock.quantityReplaced(update.id());
+            written.addAll(updates);
+        }
+        productOutbox.record(ProductEvent.Type.CREATED, written.stream().filter(Written::inserted).map(Written::id).toList());
+        productOutbox.record(ProductEvent.Type.UPDATED, updates.stream().map(Written::id).toList());
+        return new BatchOutcome(written, errors);
+    }
+
+    private ProductServiceException validate(ProductImportRow product) {
+        Set<ConstraintViolation<ProductImportRow>> violations = validator.validate(product);
+        if(violations.isEmpty())
+            return null;
+        String message = violations.stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+        return new ProductServiceException("Invalid product: " + message, "INVALID_IMPORT_ROW", HttpStatus.BAD_REQUEST);
+    }
+
+    private void fail(ProductImportResult result, long row, String name, ProductServiceException exception) {
+        fail(result, error(row, name, exception));
+    }
+
+    private void fail(ProductImportResult result, ProductImportError error) {
+        result.setFailed(result.getFailed() + 1);
+        // the count keeps going, only the list is capped so a bad feed can't blow up the response
+        if(result.getErrors().size() < productProperties.getBulkImport().getMaxReportedErrors())
+            result.getErrors().add(error);
+    }
+
+    private static ProductImportError error(long row, String name, ProductServiceException exception) {
+        return ProductImportError.builder()
+                .row(row)
+                .name(name)
+                .error_code(exception.getError_code())
+                .error_message(exception.getMessage())
+                .build();
+    }
+
+    private static Product toProduct(Written written) {
+        ProductImportRow product = written.line().product();
+        return Product.builder()
+                .id(written.id())
+                .name(product.getName())
+                .quantity(product.getQuantity())
+                .price(product.getPrice())
+                .description(product.getDescription())
+                .image(product.getImage())
+                .forAnimal(product.getFor_animal())
+                .utility(product.getUtility())
+                .build();
+    }
+
+    private static ProductServiceException nameAlreadyTaken(String name) {
+        return new ProductServiceException("A product already exists with name: " + name, "NAME_ALREADY_TAKEN", HttpStatus.CONFLICT);
+    }
+
+    private static ProductServiceException duplicateInFeed(String name) {
+        return new ProductServiceException("The name: " + name + " appears earlier in the import", "NAME_ALREADY_TAKEN", HttpStatus.CONFLICT);
+    }
+}
@@ -0,0 +1,48 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.entity.ProductEvent;
+import com.islamhamada.petshop.model.ProductEventResponse;
+import com.islamhamada.petshop.repository.ProductView;
+
+public final class ProductMapper {
+
+    private ProductMapper() {
+    }
+
+    public static ProductDTO toProductDTO(Product product) {
+        return ProductDTO.builder()
+                .id(product.getId())
+                .name(product.getName())
+                .quantity(product.getAvailableQuantity())
+                .description(product.getDescription())
+                .image(product.getImage())
+                .for_animal(product.getForAnimal())
+                .utility(product.getUtility())
+                .price(product.getPrice())
+                .build();
+    }
+
+    public static ProductDTO toProductDTO(ProductView product) {
+        return ProductDTO.builder()
+                .id(product.id())
+                .name(product.name())
+                .quantity(product.quantity())
+                .description(product.description())
+                .image(product.image())
+                .for_animal(product.forAnimal())
+                .utility(product.utility())
+                .price(product.price())
+                .build();
+    }
+
+    public static ProductEventResponse toProductEventResponse(ProductEvent event) {
+        return ProductEventResponse.builder()
+                .seq(event.getSeq())
+                .product_id(event.getProductId())
+                .type(event.getType().name())
+                .created_at(event.getCreatedAt())
+                .build();
+    }
+}
@@ -0,0 +1,42 @@
+package com.islamhamada.petshop.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the timers per operation come from @Observed on ProductServiceImpl, this adds what a timer can't show:
+// how often requests fail with a business error and how many rows a read hands back
+@Component
+public class ProductMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    // meters are looked up once per tag value, the hot path only does a map read
+    private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> rows = new ConcurrentHashMap<>();
+
+    public ProductMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void error(String errorCode) {
+        errors.computeIfAbsent(errorCode, code -> Counter.builder("product.service.errors")
+                .description("Product operations that failed with a business error")
+                .tag("error_code", code)
+                .register(meterRegistry)).increment();
+    }
+
+    public void rows(String operation, int count) {
+        rows.computeIfAbsent(operation, name -> DistributionSummary.builder("product.service.rows")
+                .description("Products returned by a read")
+                .baseUnit("rows")
+                .tag("operation", name)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry)).record(count);
+    }
+}
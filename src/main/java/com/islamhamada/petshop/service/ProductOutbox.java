@@ -0,0 +1,34 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.entity.ProductEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+
+// writes product_event rows in the caller's transaction, so an event exists exactly when its change committed.
+// JPA writes are recorded by ProductEntityListener, the JDBC ones next to their catalogVersions.bump
+@Component
+public class ProductOutbox {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(ProductEvent.Type type, Collection<Long> product_ids) {
+        if(product_ids.isEmpty())
+            return;
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate("insert into product_event (product_id, type, created_at) values (?, ?, ?)",
+                product_ids, product_ids.size(), (ps, product_id) -> {
+                    ps.setLong(1, product_id);
+                    ps.setString(2, type.name());
+                    ps.setTimestamp(3, now);
+                });
+    }
+}
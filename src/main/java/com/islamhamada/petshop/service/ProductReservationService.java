@@ -0,0 +1,10 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.model.ReservationResponse;
+
+public interface ProductReservationService {
+    ReservationResponse reserve(long product_id, int amount, Long ttl_seconds, String customer);
+    ReservationResponse commit(long reservation_id, String customer);
+    void release(long reservation_id, String customer);
+    int sweepExpired();
+}
@@ -0,0 +1,178 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.cache.ProductCache;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.entity.ProductEvent;
+import com.islamhamada.petshop.entity.ProductReservation;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.model.ReservationResponse;
+import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductReservationRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Service
+@Log4j2
+public class ProductReservationServiceImpl implements ProductReservationService {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductReservationRepository productReservationRepository;
+
+    @Autowired
+    private ProductProperties productProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private ProductMetrics productMetrics;
+
+    @Autowired
+    private ProductStock productStock;
+
+    @Autowired
+    private ProductOutbox productOutbox;
+
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public ReservationResponse reserve(long product_id, int amount, Long ttl_seconds, String customer) {
+        if(log.isDebugEnabled())
+            log.debug("Reserving {} of product with id: {}", amount, product_id);
+        // the hold comes off the quantity right away, the same single-row conditional update as a checkout
+        if(!productStock.reduce(product_id, amount)) {
+            if(!productRepository.existsById(product_id))
+                throw ProductErrors.productNotFound(productMetrics, product_id);
+            throw ProductErrors.quantityTooHigh(productMetrics, product_id, amount);
+        }
+        ProductProperties.Reservations properties = productProperties.getReservations();
+        Duration ttl = ttl_seconds == null ? properties.getDefaultTtl() : Duration.ofSeconds(ttl_seconds);
+        if(ttl.compareTo(properties.getMaxTtl()) > 0)
+            ttl = properties.getMaxTtl();
+        ProductReservation reservation = productReservationRepository.save(ProductReservation.builder()
+                .productId(product_id)
+                .customer(customer)
+                .amount(amount)
+                .expiresAt(Instant.now().plus(ttl))
+                .build());
+        stockChanged(List.of(product_id));
+        if(log.isDebugEnabled())
+            log.debug("Reservation with id: {} holds {} of product with id: {} until {}",
+                    reservation.getId(), amount, product_id, reservation.getExpiresAt());
+        return toResponse(reservation);
+    }
+
+    @Override
+    @Transactional
+    public ReservationResponse commit(long reservation_id, String customer) {
+        if(log.isDebugEnabled())
+            log.debug("Committing reservation with id: {}", reservation_id);
+        // the row lock keeps the sweeper and a concurrent release from giving the stock back meanwhile, another
+        // customer's hold is reported as not found, the same as one that doesn't exist
+        ProductReservation reservation = productReservationRepository.findForUpdateByIdAndCustomer(reservation_id, customer)
+                .orElseThrow(() -> reservationNotFound(reservation_id));
+        if(!reservation.getExpiresAt().isAfter(Instant.now())) {
+            productMetrics.error("RESERVATION_EXPIRED");
+            throw new ProductServiceException("Reservation with id: " + reservation_id + " has expired",
+                    "RESERVATION_EXPIRED", HttpStatus.GONE);
+        }
+        // the stock was taken when the hold was placed, committing only forgets the hold
+        productReservationRepository.delete(reservation);
+        if(log.isDebugEnabled())
+            log.debug("Reservation with id: {} committed", reservation_id);
+        return toResponse(reservation);
+    }
+
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void release(long reservation_id, String customer) {
+        if(log.isDebugEnabled())
+            log.debug("Releasing reservation with id: {}", reservation_id);
+        ProductReservation reservation = productReservationRepository.findForUpdateByIdAndCustomer(reservation_id, customer)
+                .orElseThrow(() -> reservationNotFound(reservation_id));
+        productReservationRepository.delete(reservation);
+        productStock.restore(reservation.getProductId(), reservation.getAmount());
+        stockChanged(List.of(reservation.getProductId()));
+        if(log.isDebugEnabled())
+            log.debug("Reservation with id: {} released", reservation_id);
+    }
+
+    @Override
+    @Transactional
+    public int sweepExpired() {
+        List<ProductReservation> expired = productReservationRepository.findExpired(Instant.now(),
+                PageRequest.of(0, productProperties.getReservations().getSweepBatchSize()));
+        if(expired.isEmpty())
+            return 0;
+        // one update per product, in id order like the batch checkout so the two can't deadlock
+        TreeMap<Long, Integer> amounts = new TreeMap<>();
+        for(ProductReservation reservation : expired)
+            amounts.merge(reservation.getProductId(), reservation.getAmount(), Integer::sum);
+        List<Map.Entry<Long, Integer>> sorted = new ArrayList<>(amounts.entrySet());
+        jdbcTemplate.batchUpdate("update product set quantity = quantity + ? where id = ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setInt(1, sorted.get(i).getValue());
+                        ps.setLong(2, sorted.get(i).getKey());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return sorted.size();
+                    }
+                });
+        productReservationRepository.deleteByIds(expired.stream().map(ProductReservation::getId).toList());
+        productStock.changedElsewhere(amounts.keySet());
+        stockChanged(amounts.keySet());
+        log.info("Released {} expired reservations of {} products", expired.size(), amounts.size());
+        return expired.size();
+    }
+
+    private void stockChanged(Collection<Long> product_ids) {
+        productCache.evict(product_ids);
+        catalogVersions.bump(product_ids);
+        productOutbox.record(ProductEvent.Type.STOCK, product_ids);
+    }
+
+    private ProductServiceException reservationNotFound(long reservation_id) {
+        productMetrics.error("RESERVATION_NOT_FOUND");
+        return new ProductServiceException("Reservation not found with id: " + reservation_id,
+                "RESERVATION_NOT_FOUND", HttpStatus.NOT_FOUND);
+    }
+
+    private static ReservationResponse toResponse(ProductReservation reservation) {
+        return ReservationResponse.builder()
+                .reservation_id(reservation.getId())
+                .product_id(reservation.getProductId())
+                .amount(reservation.getAmount())
+                .expires_at(reservation.getExpiresAt())
+                .build();
+    }
+}
@@ -0,0 +1,21 @@
+package com.islamhamada.petshop.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProductReservationSweeper {
+
+    @Autowired
+    private ProductReservationService productReservationService;
+
+    // every batch is its own short transaction, a backlog of expired holds is drained without one long lock
+    @Scheduled(fixedDelayString = "${product.reservations.sweep-interval:PT10S}")
+    public void sweep() {
+        int swept;
+        do {
+            swept = productReservationService.sweepExpired();
+        } while(swept > 0);
+    }
+}
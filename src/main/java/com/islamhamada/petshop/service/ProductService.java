@@ -1,15 +1,34 @@
 package com.islamhamada.petshop.service;
 
 import com.islamhamada.petshop.contracts.dto.ProductDTO;
+import com.islamhamada.petshop.model.BatchReduceQuantityResponse;
+import com.islamhamada.petshop.model.ProductBatch;
+import com.islamhamada.petshop.model.ProductFacets;
+import com.islamhamada.petshop.model.ProductFilter;
+import com.islamhamada.petshop.model.ProductImportResult;
+import com.islamhamada.petshop.model.ProductImportRow;
+import com.islamhamada.petshop.model.ProductPage;
 import com.islamhamada.petshop.model.ProductRequest;
+import com.islamhamada.petshop.model.ReduceQuantityLine;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface ProductService {
     List<ProductDTO> getAllProducts();
+    ProductPage getProductPage(String cursor, int size, String sort);
+    ProductPage getFilteredProducts(ProductFilter filter, String cursor, int size, String sort);
+    void exportProducts(Consumer<ProductDTO> consumer);
     ProductDTO createProduct(ProductRequest productRequest);
+    ProductImportResult importProducts(Iterator<ProductImportRow> rows, boolean upsert);
     ProductDTO getProductById(long id);
+    ProductBatch getProductsByIds(List<Long> ids);
     int reduceProductQuantity(long product_id, int amount);
+    BatchReduceQuantityResponse reduceProductQuantities(List<ReduceQuantityLine> lines);
+    void configureStockShards(long product_id, int shards);
     List<String> getUtilities();
     List<String> getForAnimals();
+    ProductFacets getFacets();
+    List<ProductDTO> searchProducts(String query, int limit);
 }
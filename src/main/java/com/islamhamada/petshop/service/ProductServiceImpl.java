@@ -1,48 +1,173 @@
 package com.islamhamada.petshop.service;
 
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.cache.ProductCache;
+import com.islamhamada.petshop.cache.SingleFlight;
+import com.islamhamada.petshop.config.ProductProperties;
 import com.islamhamada.petshop.contracts.dto.ProductDTO;
 import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.entity.ProductEvent;
 import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.index.ProductFacetIndex;
+import com.islamhamada.petshop.index.ProductSearchIndex;
+import com.islamhamada.petshop.model.BatchReduceQuantityResponse;
+import com.islamhamada.petshop.model.ProductBatch;
+import com.islamhamada.petshop.model.ProductFacets;
+import com.islamhamada.petshop.model.ProductFilter;
+import com.islamhamada.petshop.model.ProductImportResult;
+import com.islamhamada.petshop.model.ProductImportRow;
+import com.islamhamada.petshop.model.ProductPage;
 import com.islamhamada.petshop.model.ProductRequest;
+import com.islamhamada.petshop.model.ReduceQuantityLine;
+import com.islamhamada.petshop.model.ReduceQuantityResult;
 import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductSpecifications;
+import com.islamhamada.petshop.repository.ProductView;
+import io.micrometer.observation.annotation.Observed;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Log4j2
+@Observed(name = "product.service")
 public class ProductServiceImpl implements ProductService{
 
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductProperties productProperties;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private ProductFacetIndex productFacetIndex;
+
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    @Autowired
+    private ProductImporter productImporter;
+
+    @Autowired
+    private ProductMetrics productMetrics;
+
+    @Autowired
+    private ProductStock productStock;
+
+    @Autowired
+    private ProductOutbox productOutbox;
+
+    @Autowired
+    private SingleFlight singleFlight;
+
+    // a request coming after a committed change sees a newer stamp, so it never joins a read that started before it
+    private record Versioned(Object key, CatalogVersions.Stamp stamp) {
+    }
+
+    // not transactional: a caller waiting on the single flight must not hold a connection meanwhile, the one
+    // query runs in the repository's own read-only transaction
     @Override
     public List<ProductDTO> getAllProducts() {
-        log.info("Getting all products");
-        List<Product> products = productRepository.findAll();
-        List<ProductDTO> productDTOS = products.stream().map(product -> {
-            ProductDTO productDTO = ProductDTO.builder()
-                    .name(product.getName())
-                    .id(product.getId())
-                    .price(product.getPrice())
-                    .image(product.getImage())
-                    .description(product.getDescription())
-                    .for_animal(product.getForAnimal())
-                    .utility(product.getUtility())
-                    .quantity(product.getQuantity())
-                    .build();
-            return productDTO;
-        }).toList();
-        log.info("All products fetched successfully");
+        log.debug("Getting all products");
+        return singleFlight.load("getAllProducts", new Versioned("all", catalogVersions.catalog()), this::loadAllProducts);
+    }
+
+    private List<ProductDTO> loadAllProducts() {
+        int maxUnpagedSize = productProperties.getListing().getMaxUnpagedSize();
+        List<ProductView> products = productRepository.findPageAfter(Long.MIN_VALUE, PageRequest.of(0, maxUnpagedSize + 1));
+        if(products.size() > maxUnpagedSize)
+            throw new ProductServiceException(
+                    "The catalog has more than " + maxUnpagedSize + " products, use /product/page instead",
+                    "LISTING_TOO_LARGE", HttpStatus.UNPROCESSABLE_ENTITY);
+        List<ProductDTO> productDTOS = products.stream().map(ProductMapper::toProductDTO).toList();
+        productMetrics.rows("getAllProducts", productDTOS.size());
+        if(log.isDebugEnabled())
+            log.debug("All {} products fetched successfully", productDTOS.size());
         return productDTOS;
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public ProductPage getProductPage(String cursor, int size, String sort) {
+        if(log.isDebugEnabled())
+            log.debug("Getting products page with cursor: {} and size: {}", cursor, size);
+        ProductCursor position = cursor == null ? ProductCursor.first(sort) : ProductCursor.decode(cursor, sort);
+        int pageSize = Math.min(size, productProperties.getListing().getMaxPageSize());
+        // one extra row tells us whether there is a next page without a count query
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        List<ProductView> products = position.descending()
+                ? productRepository.findPageBefore(position.lastId(), limit)
+                : productRepository.findPageAfter(position.lastId(), limit);
+        ProductPage page = toProductPage(products.stream().map(ProductMapper::toProductDTO).toList(), pageSize, sort);
+        productMetrics.rows("getProductPage", page.getProducts().size());
+        if(log.isDebugEnabled())
+            log.debug("Products page fetched successfully with {} products", page.getProducts().size());
+        return page;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ProductPage getFilteredProducts(ProductFilter filter, String cursor, int size, String sort) {
+        if(log.isDebugEnabled())
+            log.debug("Getting filtered products page with filter: {}, cursor: {} and size: {}", filter, cursor, size);
+        ProductCursor position = cursor == null ? ProductCursor.first(sort) : ProductCursor.decode(cursor, sort);
+        int pageSize = Math.min(size, productProperties.getListing().getMaxPageSize());
+        Specification<Product> specification = ProductSpecifications.matching(filter).and(position.descending()
+                ? ProductSpecifications.idBefore(position.lastId())
+                : ProductSpecifications.idAfter(position.lastId()));
+        Sort order = Sort.by(position.descending() ? Sort.Direction.DESC : Sort.Direction.ASC, "id");
+        List<Product> products = productRepository.findBy(specification, query -> query
+                .sortBy(order)
+                .limit(pageSize + 1)
+                .all());
+        ProductPage page = toProductPage(products.stream().map(ProductMapper::toProductDTO).toList(), pageSize, sort);
+        productMetrics.rows("getFilteredProducts", page.getProducts().size());
+        if(log.isDebugEnabled())
+            log.debug("Filtered products page fetched successfully with {} products", page.getProducts().size());
+        return page;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportProducts(Consumer<ProductDTO> consumer) {
+        log.info("Exporting all products");
+        // views are never attached to the persistence context, so it stays empty however long the table is
+        try(Stream<ProductView> products = productRepository.streamAll()) {
+            products.forEach(product -> consumer.accept(ProductMapper.toProductDTO(product)));
+        }
+        log.info("All products exported successfully");
+    }
+
     @Override
     public ProductDTO createProduct(ProductRequest productRequest) {
-        log.info("Creating product with name: " + productRequest.getName());
+        log.info("Creating product with name: {}", productRequest.getName());
         if(productRepository.findByName(productRequest.getName()).isPresent())
             throw new ProductServiceException(
                     "A product already exists with name: " + productRequest.getName(),
@@ -54,58 +179,230 @@ public class ProductServiceImpl implements ProductService{
         ProductDTO productDTO = ProductDTO.builder()
                         .name(productRequest.getName())
                         .build();
-        log.info("Product successfully created with name: " + productRequest.getName() + " and id: " + rv.getId());
+        log.info("Product successfully created with name: {} and id: {}", productRequest.getName(), rv.getId());
         return productDTO;
     }
 
+    @Override
+    public ProductImportResult importProducts(Iterator<ProductImportRow> rows, boolean upsert) {
+        log.info("Importing products, upsert: {}", upsert);
+        // not transactional, the importer commits batch by batch
+        ProductImportResult rv = productImporter.importProducts(rows, upsert);
+        log.info("Product import finished with {} inserted, {} updated and {} failed out of {} rows",
+                rv.getInserted(), rv.getUpdated(), rv.getFailed(), rv.getRows());
+        return rv;
+    }
+
+    // not transactional, like getAllProducts
     @Override
     public ProductDTO getProductById(long id) {
-        log.info("Getting product by id: " + id);
-        Product product = productRepository.findById(id).orElseThrow(() ->
-                new ProductServiceException("Product not found with id: " + id, "NOT_FOUND", HttpStatus.NOT_FOUND)
-        );
-        log.info("Product with id: " + id + " successfully fetched");
-        return ProductDTO.builder()
-                .id(product.getId())
-                .name(product.getName())
-                .quantity(product.getQuantity())
-                .description(product.getDescription())
-                .image(product.getImage())
-                .for_animal(product.getForAnimal())
-                .utility(product.getUtility())
-                .price(product.getPrice())
+        if(log.isDebugEnabled())
+            log.debug("Getting product by id: {}", id);
+        ProductDTO cached = productCache.get(id);
+        if(cached != null) {
+            if(log.isDebugEnabled())
+                log.debug("Product with id: {} successfully fetched from cache", id);
+            return cached;
+        }
+        // a product that just dropped out of the cache is read once for everyone asking meanwhile
+        return singleFlight.load("getProductById", new Versioned(id, catalogVersions.product(id)), () -> loadProductById(id));
+    }
+
+    private ProductDTO loadProductById(long id) {
+        ProductView product = productRepository.findViewById(id).orElseThrow(() -> productNotFound(id));
+        ProductDTO productDTO = ProductMapper.toProductDTO(product);
+        productCache.put(productDTO);
+        if(log.isDebugEnabled())
+            log.debug("Product with id: {} successfully fetched", id);
+        return productDTO;
+    }
+
+    // not transactional, a batch served from the cache takes no connection, the misses are read in the
+    // repository's own read-only transaction
+    @Override
+    public ProductBatch getProductsByIds(List<Long> ids) {
+        if(log.isDebugEnabled())
+            log.debug("Getting products by ids: {}", ids);
+        int maxBatchSize = productProperties.getListing().getMaxBatchSize();
+        List<Long> requested = ids.stream().distinct().toList();
+        if(requested.size() > maxBatchSize)
+            throw new ProductServiceException(
+                    "At most " + maxBatchSize + " products can be fetched at once, got " + requested.size(),
+                    "BATCH_TOO_LARGE", HttpStatus.UNPROCESSABLE_ENTITY);
+        Map<Long, ProductDTO> products = new HashMap<>();
+        List<Long> uncached = new ArrayList<>();
+        for(long id : requested) {
+            ProductDTO cached = productCache.get(id);
+            if(cached != null)
+                products.put(id, cached);
+            else
+                uncached.add(id);
+        }
+        if(!uncached.isEmpty()) {
+            for(ProductView product : productRepository.findViewsByIdIn(uncached)) {
+                ProductDTO productDTO = ProductMapper.toProductDTO(product);
+                productCache.put(productDTO);
+                products.put(productDTO.getId(), productDTO);
+            }
+        }
+        // in the requested order, ids without a product are reported instead of failing the whole batch
+        List<ProductDTO> found = new ArrayList<>(requested.size());
+        List<Long> missing = new ArrayList<>();
+        for(long id : requested) {
+            ProductDTO product = products.get(id);
+            if(product != null)
+                found.add(product);
+            else
+                missing.add(id);
+        }
+        productMetrics.rows("getProductsByIds", found.size());
+        if(log.isDebugEnabled())
+            log.debug("Products by ids successfully fetched, {} from cache, {} found, {} missing",
+                    requested.size() - uncached.size(), found.size(), missing.size());
+        return ProductBatch.builder()
+                .products(found)
+                .missing(missing)
                 .build();
     }
 
     @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public int reduceProductQuantity(long product_id, int amount) {
-        log.info("Reducing amount of product with id: " + product_id + "by: " + amount);
-        Product product = productRepository.findById(product_id).orElseThrow(() ->
-                new ProductServiceException("Product not found with id: " + product_id, "NOT_FOUND", HttpStatus.NOT_FOUND)
-        );
-        if(amount > product.getQuantity())
-            throw new ProductServiceException(
-                    "A product can't have a negative quantity. Amount of " + amount + " is too high for product with id: " + product_id,
-                    "QUANTITY_ERROR", HttpStatus.CONFLICT);
-        product.setQuantity(product.getQuantity() - amount);
-        productRepository.save(product);
-        log.info("Product's amount with id: " + product_id + " successfully reduced by " + amount);
+        if(log.isDebugEnabled())
+            log.debug("Reducing amount of product with id: {} by: {}", product_id, amount);
+        // the stock check and the decrement happen in one statement so concurrent checkouts can't oversell
+        if(!productStock.reduce(product_id, amount)) {
+            if(!productRepository.existsById(product_id))
+                throw productNotFound(product_id);
+            throw quantityTooHigh(product_id, amount);
+        }
+        productCache.evict(product_id);
+        catalogVersions.bump(product_id);
+        productOutbox.record(ProductEvent.Type.STOCK, List.of(product_id));
+        if(log.isDebugEnabled())
+            log.debug("Product's amount with id: {} successfully reduced by {}", product_id, amount);
         return amount;
     }
 
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public BatchReduceQuantityResponse reduceProductQuantities(List<ReduceQuantityLine> lines) {
+        if(log.isDebugEnabled())
+            log.debug("Reducing amounts of {} order lines", lines.size());
+        // duplicate lines are merged and rows are updated in id order, so concurrent orders lock rows
+        // in the same order and can't deadlock each other
+        TreeMap<Long, Long> amounts = new TreeMap<>();
+        for(ReduceQuantityLine line : lines)
+            amounts.merge(line.getProduct_id(), (long) line.getAmount(), Long::sum);
+        Map<Long, ProductServiceException> errors = new HashMap<>();
+        // summed as long, lines of one product can add up past an int, which is more than any product holds;
+        // the order is refused before anything is written
+        amounts.forEach((id, amount) -> {
+            if(amount > Integer.MAX_VALUE)
+                errors.put(id, quantityTooHigh(id, amount));
+        });
+        if(errors.isEmpty()) {
+            TreeMap<Long, Integer> rows = new TreeMap<>();
+            amounts.forEach((id, amount) -> rows.put(id, amount.intValue()));
+            List<Long> failedIds = productStock.reduceAll(rows);
+            if(!failedIds.isEmpty()) {
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                Set<Long> existingIds = productRepository.findAllById(failedIds).stream()
+                        .map(Product::getId)
+                        .collect(Collectors.toSet());
+                for(long id : failedIds)
+                    errors.put(id, existingIds.contains(id) ? quantityTooHigh(id, amounts.get(id)) : productNotFound(id));
+            }
+        }
+        List<ReduceQuantityResult> results = lines.stream().map(line -> {
+            ProductServiceException error = errors.get(line.getProduct_id());
+            return ReduceQuantityResult.builder()
+                    .product_id(line.getProduct_id())
+                    .amount(line.getAmount())
+                    .error_code(error == null ? null : error.getError_code())
+                    .error_message(error == null ? null : error.getMessage())
+                    .build();
+        }).toList();
+        if(errors.isEmpty()) {
+            productCache.evict(amounts.keySet());
+            catalogVersions.bump(amounts.keySet());
+            productOutbox.record(ProductEvent.Type.STOCK, amounts.keySet());
+            if(log.isDebugEnabled())
+                log.debug("Amounts of {} order lines successfully reduced", lines.size());
+        } else
+            log.info("Reducing amounts of {} order lines rolled back, {} products failed", lines.size(), errors.size());
+        return BatchReduceQuantityResponse.builder()
+                .applied(errors.isEmpty())
+                .results(results)
+                .build();
+    }
+
+    @Override
+    public void configureStockShards(long product_id, int shards) {
+        log.info("Splitting stock of product with id: {} over {} shards", product_id, shards);
+        productStock.configureShards(product_id, shards);
+    }
+
     @Override
     public List<String> getUtilities() {
-        log.info("Getting utilities");
-        List<String> rv = productRepository.getDistinctUtilities();
-        log.info("Utilities successfully fetched");
+        log.debug("Getting utilities");
+        List<String> rv = productFacetIndex.getUtilities();
+        log.debug("Utilities successfully fetched");
         return rv;
     }
 
     @Override
     public List<String> getForAnimals() {
-        log.info("Getting for_animals");
-        List<String> rv = productRepository.getDistinctForAnimals();
-        log.info("for_animals successfully fetched");
+        log.debug("Getting for_animals");
+        List<String> rv = productFacetIndex.getForAnimals();
+        log.debug("for_animals successfully fetched");
+        return rv;
+    }
+
+    @Override
+    public ProductFacets getFacets() {
+        log.debug("Getting facets");
+        ProductFacets rv = productFacetIndex.getFacets();
+        log.debug("Facets successfully fetched");
+        return rv;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ProductDTO> searchProducts(String query, int limit) {
+        log.debug("Searching products with query: {}", query);
+        List<Long> ids = productSearchIndex.search(query, Math.min(limit, productProperties.getSearch().getMaxResults()));
+        Map<Long, ProductView> products = productRepository.findViewsByIdIn(ids).stream()
+                .collect(Collectors.toMap(ProductView::id, Function.identity()));
+        // keep the ranking of the index, a product deleted since it was indexed is skipped
+        List<ProductDTO> rv = ids.stream()
+                .map(products::get)
+                .filter(Objects::nonNull)
+                .map(ProductMapper::toProductDTO)
+                .toList();
+        productMetrics.rows("searchProducts", rv.size());
+        if(log.isDebugEnabled())
+            log.debug("Search for: {} successfully returned {} products", query, rv.size());
         return rv;
     }
+
+    private ProductPage toProductPage(List<ProductDTO> products, int pageSize, String sort) {
+        String nextCursor = null;
+        if(products.size() > pageSize) {
+            products = products.subList(0, pageSize);
+            nextCursor = new ProductCursor(sort, products.get(pageSize - 1).getId()).encode();
+        }
+        return ProductPage.builder()
+                .products(products)
+                .next_cursor(nextCursor)
+                .build();
+    }
+
+    private ProductServiceException productNotFound(long id) {
+        return ProductErrors.productNotFound(productMetrics, id);
+    }
+
+    private ProductServiceException quantityTooHigh(long id, long amount) {
+        return ProductErrors.quantityTooHigh(productMetrics, id, amount);
+    }
 }
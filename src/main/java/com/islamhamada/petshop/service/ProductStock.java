@@ -0,0 +1,269 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.cache.ProductCache;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// where a product's stock is decremented: the product row for normal products, one of N product_stock_shard
+// rows for products flagged as sharded, so a hot SKU's checkouts lock different rows. Every decrement is still
+// a conditional update on one row, which is what keeps the no-oversell guarantee. With write-behind enabled
+// WriteBehindStock takes every decrement first and the rows only see its flushed deltas.
+// The transactions calling reduce and restore run at READ COMMITTED: under InnoDB's REPEATABLE READ a guarded
+// shard update that matches nothing keeps its lock, and the fallback to the product row then deadlocks with
+// reduceAcrossShards or configureShards, which lock the product row first and wait for that shard
+@Component
+@Log4j2
+public class ProductStock {
+
+    public static final int MAX_SHARDS = 64;
+
+    // the one guarded decrement of a product row, single and batched; plain JDBC, a JPQL bulk update would drop
+    // the whole Product region of the second-level cache
+    private static final String REDUCE_PRODUCT_ROW = "update product set quantity = quantity - ? where id = ? and quantity >= ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private ProductMetrics productMetrics;
+
+    @Autowired(required = false)
+    private WriteBehindStock writeBehindStock;
+
+    // shard count of the sharded products, a hint only: a stale entry costs a fallback, never a wrong decrement
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadShardCounts() {
+        jdbcTemplate.query("select id, stock_shards from product where stock_shards > 0",
+                rs -> {
+                    shardCounts.put(rs.getLong(1), rs.getInt(2));
+                });
+        log.info("{} products have sharded stock", shardCounts.size());
+    }
+
+    // whether a decrement is a plain conditional update of the product row, reduceAll sends those together
+    private boolean onProductRow(long product_id) {
+        return writeBehindStock == null && !shardCounts.containsKey(product_id);
+    }
+
+    // the ids whose amount couldn't be taken. Rows of normal products go in one JDBC batch, sharded or
+    // write-behind products after them one by one, in id order within each so concurrent orders lock rows in the
+    // same order and can't deadlock each other
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<Long> reduceAll(SortedMap<Long, Integer> amounts) {
+        List<Map.Entry<Long, Integer>> rows = new ArrayList<>();
+        List<Map.Entry<Long, Integer>> others = new ArrayList<>();
+        for(Map.Entry<Long, Integer> entry : amounts.entrySet())
+            (onProductRow(entry.getKey()) ? rows : others).add(entry);
+        int[] updated = rows.isEmpty() ? new int[0] : jdbcTemplate.batchUpdate(REDUCE_PRODUCT_ROW,
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Map.Entry<Long, Integer> entry = rows.get(i);
+                        ps.setInt(1, entry.getValue());
+                        ps.setLong(2, entry.getKey());
+                        ps.setInt(3, entry.getValue());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return rows.size();
+                    }
+                });
+        List<Long> failed = new ArrayList<>();
+        for(int i = 0; i < updated.length; i++)
+            // a second try through reduce catches a product sharded by another instance
+            if(updated[i] == 0 && !reduce(rows.get(i).getKey(), rows.get(i).getValue()))
+                failed.add(rows.get(i).getKey());
+        for(Map.Entry<Long, Integer> entry : others)
+            if(!reduce(entry.getKey(), entry.getValue()))
+                failed.add(entry.getKey());
+        return failed;
+    }
+
+    // true when the amount was taken, false when there isn't enough stock or no such product
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean reduce(long product_id, int amount) {
+        if(writeBehindStock != null) {
+            Boolean taken = writeBehindStock.reduce(product_id, amount);
+            if(taken != null)
+                return taken;
+        }
+        Integer shards = shardCounts.get(product_id);
+        if(shards == null) {
+            if(jdbcTemplate.update(REDUCE_PRODUCT_ROW, amount, product_id, amount) == 1)
+                return true;
+            // sharded by another instance since this one loaded its hints
+            Integer stored = storedShardCount(product_id, false);
+            if(stored == null || stored == 0)
+                return false;
+            shardCounts.put(product_id, stored);
+        }
+        if(reduceFromOneShard(product_id, amount))
+            return true;
+        return reduceAcrossShards(product_id, amount);
+    }
+
+    // puts stock back, on a random shard for sharded products so releases don't queue on the product row either
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void restore(long product_id, int amount) {
+        if(writeBehindStock != null && writeBehindStock.restore(product_id, amount))
+            return;
+        Integer shards = shardCounts.get(product_id);
+        if(shards != null && jdbcTemplate.update(
+                "update product_stock_shard set quantity = quantity + ? where product_id = ? and shard = ?",
+                amount, product_id, ThreadLocalRandom.current().nextInt(shards)) == 1)
+            return;
+        jdbcTemplate.update("update product set quantity = quantity + ? where id = ?", amount, product_id);
+    }
+
+    // quantities changed with a direct statement, the write-behind counters reload them
+    public void changedElsewhere(Collection<Long> product_ids) {
+        if(writeBehindStock != null)
+            writeBehindStock.changedElsewhere(product_ids);
+    }
+
+    // the product row was just given a new absolute quantity by an import, the old shards don't count anymore.
+    // Leftover shard rows would be sold on top of the imported quantity, so the row decides, not the hint
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void quantityReplaced(long product_id) {
+        Integer shards = storedShardCount(product_id, true);
+        if(shards == null || shards == 0) {
+            shardCounts.remove(product_id);
+            return;
+        }
+        jdbcTemplate.update("delete from product_stock_shard where product_id = ?", product_id);
+        configureShards(product_id, shards);
+    }
+
+    // 0 or 1 folds the stock back into the product row
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void configureShards(long product_id, int shards) {
+        if(shards < 0 || shards > MAX_SHARDS)
+            throw new ProductServiceException("Stock shards must be between 0 and " + MAX_SHARDS, "INVALID_STOCK_SHARDS",
+                    HttpStatus.BAD_REQUEST);
+        int target = shards == 1 ? 0 : shards;
+        // locking the product row first, then its shards, is the order reduceAcrossShards uses too
+        Integer base = lockBaseQuantity(product_id);
+        if(base == null)
+            throw ProductErrors.productNotFound(productMetrics, product_id);
+        int total = base + lockShardQuantities(product_id).stream().mapToInt(Integer::intValue).sum();
+        jdbcTemplate.update("delete from product_stock_shard where product_id = ?", product_id);
+        if(target == 0)
+            jdbcTemplate.update("update product set quantity = ?, stock_shards = 0 where id = ?", total, product_id);
+        else {
+            List<Object[]> rows = new ArrayList<>(target);
+            for(int shard = 0; shard < target; shard++)
+                rows.add(new Object[]{product_id, shard, total / target + (shard < total % target ? 1 : 0)});
+            jdbcTemplate.batchUpdate("insert into product_stock_shard (product_id, shard, quantity) values (?, ?, ?)", rows);
+            jdbcTemplate.update("update product set quantity = 0, stock_shards = ? where id = ?", target, product_id);
+        }
+        if(target == 0)
+            shardCounts.remove(product_id);
+        else
+            shardCounts.put(product_id, target);
+        changedElsewhere(List.of(product_id));
+        productCache.evict(product_id);
+        catalogVersions.bump(product_id);
+        log.info("Stock of product with id: {} split over {} shards", product_id, target);
+    }
+
+    private boolean reduceFromOneShard(long product_id, int amount) {
+        // a plain read first, so the conditional updates only go to shards that looked like they could cover
+        // the amount instead of locking every shard on the way to one that can
+        List<Integer> candidates = jdbcTemplate.queryForList(
+                "select shard from product_stock_shard where product_id = ? and quantity >= ?", Integer.class,
+                product_id, amount);
+        if(candidates.isEmpty())
+            return false;
+        int start = ThreadLocalRandom.current().nextInt(candidates.size());
+        for(int i = 0; i < candidates.size(); i++) {
+            int shard = candidates.get((start + i) % candidates.size());
+            if(jdbcTemplate.update(
+                    "update product_stock_shard set quantity = quantity - ? where product_id = ? and shard = ? and quantity >= ?",
+                    amount, product_id, shard, amount) == 1)
+                return true;
+        }
+        return false;
+    }
+
+    // no single shard covers the amount, which only happens close to selling out: lock everything in a fixed
+    // order and take it from several rows
+    private boolean reduceAcrossShards(long product_id, int amount) {
+        Integer base = lockBaseQuantity(product_id);
+        if(base == null)
+            return false;
+        List<Integer> shards = lockShardQuantities(product_id);
+        if(shards.isEmpty())
+            shardCounts.remove(product_id);
+        if(base + shards.stream().mapToInt(Integer::intValue).sum() < amount)
+            return false;
+        int left = amount;
+        int fromBase = Math.min(base, left);
+        if(fromBase > 0) {
+            jdbcTemplate.update("update product set quantity = quantity - ? where id = ?", fromBase, product_id);
+            left -= fromBase;
+        }
+        for(int shard = 0; shard < shards.size() && left > 0; shard++) {
+            int taken = Math.min(shards.get(shard), left);
+            if(taken == 0)
+                continue;
+            jdbcTemplate.update("update product_stock_shard set quantity = quantity - ? where product_id = ? and shard = ?",
+                    taken, product_id, shard);
+            left -= taken;
+        }
+        return true;
+    }
+
+    private Integer lockBaseQuantity(long product_id) {
+        try {
+            return jdbcTemplate.queryForObject("select quantity from product where id = ? for update", Integer.class, product_id);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+
+    // indexed by shard number, shards are numbered 0..n-1 without gaps
+    private List<Integer> lockShardQuantities(long product_id) {
+        return jdbcTemplate.queryForList("select quantity from product_stock_shard where product_id = ? order by shard for update",
+                Integer.class, product_id);
+    }
+
+    private Integer storedShardCount(long product_id, boolean forUpdate) {
+        try {
+            return jdbcTemplate.queryForObject("select stock_shards from product where id = ?" + (forUpdate ? " for update" : ""),
+                    Integer.class, product_id);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+}
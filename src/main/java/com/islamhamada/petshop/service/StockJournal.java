@@ -0,0 +1,203 @@
+package com.islamhamada.petshop.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// append-only log of the stock changes WriteBehindStock acknowledged but hasn't written to the database yet.
+// Records are fixed size: sequence (8) | product id (8) | amount (4) | crc32 of the first 20 bytes (4),
+// in segment files named after the first sequence they hold
+class StockJournal implements Closeable {
+
+    static final int RECORD_SIZE = 24;
+
+    private static final String PREFIX = "stock-journal-";
+    private static final String SUFFIX = ".log";
+
+    record Entry(long sequence, long productId, int amount) {
+    }
+
+    private final Path directory;
+
+    private final long segmentSize;
+
+    private final boolean sync;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // only one force at a time, the threads queued behind it usually find their record already covered
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    // guarded by appendLock
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel segment;
+    private long segmentBytes;
+    private long sequence;
+
+    private volatile long synced;
+
+    StockJournal(Path directory, long segmentSize, boolean sync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+    }
+
+    // every intact record of every segment in sequence order, a torn record at the end of a segment ends it
+    List<Entry> read() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        CRC32 check = new CRC32();
+        for(Path path : segments()) {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                while(true) {
+                    buffer.clear();
+                    while(buffer.hasRemaining() && channel.read(buffer) > 0);
+                    if(buffer.hasRemaining())
+                        break;
+                    check.reset();
+                    check.update(buffer.array(), 0, RECORD_SIZE - 4);
+                    buffer.flip();
+                    Entry entry = new Entry(buffer.getLong(), buffer.getLong(), buffer.getInt());
+                    if(buffer.getInt() != (int) check.getValue())
+                        break;
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    // drops what was read and starts appending after the given sequence
+    void start(long lastSequence) throws IOException {
+        appendLock.lock();
+        try {
+            for(Path path : segments())
+                Files.delete(path);
+            sequence = lastSequence;
+            synced = lastSequence;
+            openSegment();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    long append(long productId, int amount) throws IOException {
+        appendLock.lock();
+        try {
+            if(segmentBytes >= segmentSize)
+                roll();
+            long next = sequence + 1;
+            record.clear();
+            record.putLong(next).putLong(productId).putInt(amount);
+            crc.reset();
+            crc.update(record.array(), 0, RECORD_SIZE - 4);
+            record.putInt((int) crc.getValue());
+            record.flip();
+            while(record.hasRemaining())
+                segment.write(record);
+            segmentBytes += RECORD_SIZE;
+            sequence = next;
+            return next;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // returns once the record with this sequence is on disk, one force covers every record appended before it
+    void sync(long upTo) throws IOException {
+        if(!sync || synced >= upTo)
+            return;
+        syncLock.lock();
+        try {
+            if(synced >= upTo)
+                return;
+            long target;
+            FileChannel channel;
+            appendLock.lock();
+            try {
+                target = sequence;
+                channel = segment;
+            } finally {
+                appendLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // rolled over meanwhile, roll() forced the whole segment before closing it
+            }
+            if(target > synced)
+                synced = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    long lastSequence() {
+        appendLock.lock();
+        try {
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // segments whose every record is at or below the checkpoint are in the database and can go
+    void deleteUpTo(long checkpoint) throws IOException {
+        List<Path> segments = segments();
+        for(int i = 0; i + 1 < segments.size(); i++)
+            if(firstSequence(segments.get(i + 1)) - 1 <= checkpoint)
+                Files.deleteIfExists(segments.get(i));
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if(segment != null) {
+                segment.force(false);
+                segment.close();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // called with appendLock held
+    private void roll() throws IOException {
+        segment.force(false);
+        segment.close();
+        synced = sequence;
+        openSegment();
+    }
+
+    // called with appendLock held
+    private void openSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, sequence + 1, SUFFIX));
+        segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentBytes = 0;
+    }
+
+    private List<Path> segments() throws IOException {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(PREFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,412 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.cache.ProductCache;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.entity.ProductEvent;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// opt-in single instance mode: decrements are taken from in-memory counters seeded from the product table,
+// journaled to local disk before they are acknowledged, and their net per-product deltas are written to the
+// database in one batch every flush interval or flush-operations decrements. The counters only ever decide
+// against this instance's own view, which is why a second instance selling the same products must not run it
+@Component
+@ConditionalOnProperty(name = "product.write-behind.enabled", havingValue = "true")
+// the replay has to happen before the first request, also with lazy initialization
+@Lazy(false)
+@Log4j2
+public class WriteBehindStock implements ProductChangeListener, SmartInitializingSingleton, DisposableBean {
+
+    @Autowired
+    private ProductProperties productProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private ProductOutbox productOutbox;
+
+    private static final class Counter {
+        // what this instance can still sell, never below 0
+        final AtomicInteger available;
+        // taken since the last flush, LongAdder so the hottest product's decrements don't share one cache line
+        final LongAdder pending = new LongAdder();
+        // the product row was changed by something other than this class, reloaded after the next flush
+        volatile boolean stale;
+
+        Counter(int available) {
+            this.available = new AtomicInteger(available);
+        }
+    }
+
+    private final ConcurrentMap<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    // decrements share it, the flush takes it exclusively for the instant it snapshots the pending deltas and
+    // the journal position, so every journaled change is either in the snapshot or after the checkpoint
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicLong unflushed = new AtomicLong();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("stock-flush").daemon().factory());
+
+    private StockJournal journal;
+
+    private long checkpoint;
+
+    // before the web server starts, so nothing is sold from counters the journal hasn't been replayed into
+    @Override
+    public void afterSingletonsInstantiated() {
+        ProductProperties.WriteBehind properties = productProperties.getWriteBehind();
+        if(!StringUtils.hasText(properties.getNodeId()))
+            throw new IllegalStateException("product.write-behind.node-id has to be set to an id that stays the same "
+                    + "across restarts, the journal is replayed from that node's checkpoint");
+        try {
+            journal = new StockJournal(Path.of(properties.getJournalDirectory()), properties.getSegmentSize().toBytes(),
+                    properties.isSyncJournal());
+            replay();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the stock journal in " + properties.getJournalDirectory(), e);
+        }
+    }
+
+    // true when the amount was taken, false when there isn't enough stock, null when the product isn't in the
+    // table and the caller should answer from the database
+    public Boolean reduce(long product_id, int amount) {
+        Counter counter = counter(product_id);
+        if(counter == null)
+            return null;
+        long sequence;
+        snapshotLock.readLock().lock();
+        try {
+            int current;
+            do {
+                current = counter.available.get();
+                if(current < amount)
+                    return false;
+            } while(!counter.available.compareAndSet(current, current - amount));
+            sequence = append(counter, product_id, amount);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        sync(sequence);
+        undoOnRollback(product_id, amount);
+        if(unflushed.incrementAndGet() >= productProperties.getWriteBehind().getFlushOperations())
+            requestFlush();
+        return true;
+    }
+
+    // false when the product isn't counted here and the stock has to go back to the database directly
+    public boolean restore(long product_id, int amount) {
+        if(!counters.containsKey(product_id))
+            return false;
+        // given back once the caller's transaction commits, a released hold that rolls back is still held
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            giveBack(product_id, amount);
+            return true;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                giveBack(product_id, amount);
+            }
+        });
+        return true;
+    }
+
+    // for statements that change the quantity of counted products without going through this class
+    public void changedElsewhere(Collection<Long> product_ids) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            markStale(product_ids);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                markStale(product_ids);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${product.write-behind.flush-interval:50ms}")
+    public void flush() {
+        if(!flushLock.tryLock())
+            return;
+        try {
+            long upTo;
+            TreeMap<Long, Long> deltas = new TreeMap<>();
+            snapshotLock.writeLock().lock();
+            try {
+                upTo = journal.lastSequence();
+                counters.forEach((id, counter) -> {
+                    long delta = counter.pending.sumThenReset();
+                    if(delta != 0)
+                        deltas.put(id, delta);
+                });
+                unflushed.set(0);
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+            if(upTo == checkpoint) {
+                reloadStale();
+                return;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> write(deltas, upTo));
+            } catch (RuntimeException e) {
+                // still in the journal after the stored checkpoint, they go out with the next flush or the replay.
+                // A product removed meanwhile has no counter and no row left to write its delta to
+                deltas.forEach((id, delta) -> counters.computeIfPresent(id, (key, counter) -> {
+                    counter.pending.add(delta);
+                    return counter;
+                }));
+                log.warn("Could not flush stock changes of {} products, retrying with the next flush", deltas.size(), e);
+                return;
+            }
+            checkpoint = upTo;
+            journal.deleteUpTo(upTo);
+            reloadStale();
+            if(!deltas.isEmpty()) {
+                productCache.evict(deltas.keySet());
+                catalogVersions.bump(deltas.keySet());
+            }
+            if(log.isDebugEnabled())
+                log.debug("Flushed stock changes of {} products up to journal sequence {}", deltas.size(), upTo);
+        } catch (IOException e) {
+            log.warn("Could not delete flushed stock journal segments", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        // waits for a flush already running, the last one then takes everything acknowledged so far
+        flusher.close();
+        flush();
+        journal.close();
+    }
+
+    @Override
+    public void productCreated(Product product) {
+    }
+
+    @Override
+    public void productUpdated(Product product) {
+        markStale(List.of(product.getId()));
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        counters.remove(product.getId());
+    }
+
+    private void replay() throws IOException {
+        checkpoint = loadCheckpoint();
+        TreeMap<Long, Long> deltas = new TreeMap<>();
+        long last = checkpoint;
+        for(StockJournal.Entry entry : journal.read())
+            if(entry.sequence() > checkpoint) {
+                deltas.merge(entry.productId(), (long) entry.amount(), Long::sum);
+                last = Math.max(last, entry.sequence());
+            }
+        if(last > checkpoint) {
+            long upTo = last;
+            transactionTemplate.executeWithoutResult(status -> write(deltas, upTo));
+            log.info("Replayed journaled stock changes of {} products up to sequence {}", deltas.size(), upTo);
+            checkpoint = upTo;
+        }
+        journal.start(checkpoint);
+    }
+
+    // rows in id order like the batch checkout; a delta can take a row below 0 only if something else sold the
+    // same stock meanwhile, the acknowledged decrement is written regardless
+    private void write(TreeMap<Long, Long> deltas, long upTo) {
+        List<Map.Entry<Long, Long>> rows = new ArrayList<>(deltas.entrySet());
+        if(!rows.isEmpty())
+            jdbcTemplate.batchUpdate("update product set quantity = quantity - ? where id = ?",
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            ps.setLong(1, rows.get(i).getValue());
+                            ps.setLong(2, rows.get(i).getKey());
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return rows.size();
+                        }
+                    });
+        productOutbox.record(ProductEvent.Type.STOCK, deltas.keySet());
+        String nodeId = productProperties.getWriteBehind().getNodeId();
+        if(jdbcTemplate.update("update stock_journal_checkpoint set sequence = ? where node_id = ?", upTo, nodeId) == 0)
+            jdbcTemplate.update("insert into stock_journal_checkpoint (node_id, sequence) values (?, ?)", nodeId, upTo);
+    }
+
+    private long loadCheckpoint() {
+        try {
+            return jdbcTemplate.queryForObject("select sequence from stock_journal_checkpoint where node_id = ?", Long.class,
+                    productProperties.getWriteBehind().getNodeId());
+        } catch (EmptyResultDataAccessException e) {
+            return 0;
+        }
+    }
+
+    // the available quantity includes stock shards, flushed deltas come off the product row either way. Plain
+    // JDBC outside a read-only transaction, so it is read from the primary: counters seeded from a lagging
+    // replica would sell stock that is gone or strand stock that is there
+    private Integer loadAvailable(long product_id) {
+        try {
+            return jdbcTemplate.queryForObject("select p.quantity + case when p.stock_shards > 0 then (select "
+                    + "coalesce(sum(s.quantity), 0) from product_stock_shard s where s.product_id = p.id) else 0 end "
+                    + "from product p where p.id = ?", Integer.class, product_id);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+
+    private Counter counter(long product_id) {
+        Counter counter = counters.get(product_id);
+        if(counter != null)
+            return counter;
+        Integer available = loadAvailable(product_id);
+        if(available == null)
+            return null;
+        Counter loaded = new Counter(available);
+        counter = counters.putIfAbsent(product_id, loaded);
+        return counter == null ? loaded : counter;
+    }
+
+    private void giveBack(long product_id, int amount) {
+        Counter counter = counters.get(product_id);
+        if(counter == null)
+            return;
+        long sequence;
+        snapshotLock.readLock().lock();
+        try {
+            counter.available.addAndGet(amount);
+            sequence = append(counter, product_id, -amount);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        sync(sequence);
+    }
+
+    // called with the read lock held
+    private long append(Counter counter, long product_id, int amount) {
+        try {
+            long sequence = journal.append(product_id, amount);
+            counter.pending.add(amount);
+            return sequence;
+        } catch (IOException e) {
+            counter.available.addAndGet(amount);
+            throw new UncheckedIOException("Could not journal a stock change of product with id: " + product_id, e);
+        }
+    }
+
+    private void sync(long sequence) {
+        try {
+            journal.sync(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync the stock journal", e);
+        }
+    }
+
+    // the caller's transaction is what acknowledges the decrement, a rollback has to give the amount back
+    private void undoOnRollback(long product_id, int amount) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive())
+            return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if(status == STATUS_ROLLED_BACK)
+                    giveBack(product_id, amount);
+            }
+        });
+    }
+
+    private void requestFlush() {
+        if(flushRequested.compareAndSet(false, true))
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+    }
+
+    private void markStale(Collection<Long> product_ids) {
+        for(long id : product_ids) {
+            Counter counter = counters.get(id);
+            if(counter != null)
+                counter.stale = true;
+        }
+    }
+
+    // called with flushLock held, so the product rows only move by changes this class doesn't know about
+    private void reloadStale() {
+        for(Map.Entry<Long, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            if(!counter.stale)
+                continue;
+            counter.stale = false;
+            Integer available = loadAvailable(entry.getKey());
+            snapshotLock.writeLock().lock();
+            try {
+                if(available == null)
+                    counters.remove(entry.getKey());
+                else
+                    counter.available.set(Math.max(0, available - (int) counter.pending.sum()));
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+        }
+    }
+}
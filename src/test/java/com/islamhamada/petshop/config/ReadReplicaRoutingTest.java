@@ -0,0 +1,116 @@
+package com.islamhamada.petshop.config;
+
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.service.ProductService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// a second H2 database stands in for the replica; nothing replicates, so the tests copy the schema over and
+// write the replica's rows and heartbeat themselves
+@SpringBootTest(properties = {
+        "product.read-replica.enabled=true",
+        "product.read-replica.url=" + ReadReplicaRoutingTest.REPLICA_URL,
+        "product.read-replica.username=sa",
+        "product.read-replica.password=password",
+        "product.read-replica.max-lag=5s",
+        "product.read-replica.check-interval=1h"
+})
+@EnableConfigurationProperties
+class ReadReplicaRoutingTest {
+
+    private static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ReplicaHealth replicaHealth;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // the service's replica pool has read-only connections, the tests write through their own
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", "password"));
+
+    @BeforeEach
+    public void setup() {
+        replica.execute("drop all objects");
+        for(String statement : jdbcTemplate.queryForList("script nodata", String.class))
+            if(!statement.startsWith("--") && !statement.startsWith("CREATE USER"))
+                replica.execute(statement);
+        productRepository.deleteAll();
+    }
+
+    @Test
+    public void read_only_transactions_use_a_healthy_replica() {
+        Product product = productRepository.save(getMockProduct());
+        copyToReplica(product, "replica name");
+        beat(System.currentTimeMillis());
+        replicaHealth.check();
+        assertTrue(replicaHealth.isUsable());
+
+        assertEquals("replica name", productService.getProductById(product.getId()).getName());
+    }
+
+    @Test
+    public void lagging_replica_falls_back_to_the_primary() {
+        Product product = productRepository.save(getMockProduct());
+        copyToReplica(product, "replica name");
+        beat(System.currentTimeMillis() - 60_000);
+        replicaHealth.check();
+        assertFalse(replicaHealth.isUsable());
+
+        assertEquals("name", productService.getProductById(product.getId()).getName());
+    }
+
+    @Test
+    public void writes_use_the_primary() {
+        Product product = productRepository.save(getMockProduct());
+        copyToReplica(product, "replica name");
+        beat(System.currentTimeMillis());
+        replicaHealth.check();
+
+        productService.reduceProductQuantity(product.getId(), 3);
+        // outside a transaction, so on the primary
+        assertEquals(7, jdbcTemplate.queryForObject("select quantity from product where id = ?", Integer.class,
+                product.getId()));
+        assertEquals(10, replica.queryForObject("select quantity from product where id = ?", Integer.class,
+                product.getId()));
+    }
+
+    private void copyToReplica(Product product, String name) {
+        replica.update("insert into product (id, name, quantity, price, description, image, for_animal, utility, stock_shards) "
+                        + "values (?, ?, ?, ?, ?, ?, ?, ?, 0)", product.getId(), name, product.getQuantity(), product.getPrice(),
+                product.getDescription(), product.getImage(), product.getForAnimal(), product.getUtility());
+    }
+
+    private void beat(long millis) {
+        replica.update("delete from replica_heartbeat");
+        replica.update("insert into replica_heartbeat (id, beat) values (1, ?)", millis);
+    }
+
+    private static Product getMockProduct() {
+        return Product.builder()
+                .name("name")
+                .price(100)
+                .description("description")
+                .forAnimal("animal")
+                .quantity(10)
+                .utility("utility")
+                .image("image")
+                .build();
+    }
+}
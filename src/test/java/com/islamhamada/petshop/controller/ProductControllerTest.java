@@ -4,12 +4,33 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.islamhamada.petshop.contracts.dto.ProductDTO;
 import com.islamhamada.petshop.contracts.model.RestExceptionResponse;
 import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.entity.ProductReservation;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.index.ProductSearchIndex;
+import com.islamhamada.petshop.model.BatchReduceQuantityRequest;
+import com.islamhamada.petshop.model.BatchReduceQuantityResponse;
+import com.islamhamada.petshop.model.ProductBatch;
+import com.islamhamada.petshop.model.ProductEventPage;
+import com.islamhamada.petshop.model.ProductEventResponse;
+import com.islamhamada.petshop.model.ProductFacets;
+import com.islamhamada.petshop.model.ProductImportError;
+import com.islamhamada.petshop.model.ProductImportResult;
+import com.islamhamada.petshop.model.ProductPage;
 import com.islamhamada.petshop.model.ProductRequest;
 import com.islamhamada.petshop.contracts.model.ReduceQuantityRequest;
+import com.islamhamada.petshop.model.ReduceQuantityLine;
+import com.islamhamada.petshop.model.ReservationRequest;
+import com.islamhamada.petshop.model.ReservationResponse;
 import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductReservationRepository;
+import com.islamhamada.petshop.service.ProductEventRelay;
+import com.islamhamada.petshop.service.ProductReservationService;
+import com.islamhamada.petshop.service.ProductService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -21,15 +42,31 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.jwt;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 
@@ -41,9 +78,27 @@ class ProductControllerTest {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductService productService;
+
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProductReservationRepository productReservationRepository;
+
+    @Autowired
+    private ProductReservationService productReservationService;
+
+    @Autowired
+    private ProductEventRelay productEventRelay;
+
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
     ObjectMapper objectMapper
             = new ObjectMapper()
             .findAndRegisterModules()
@@ -55,6 +110,7 @@ class ProductControllerTest {
 
     @BeforeEach
     public void setup() {
+        productReservationRepository.deleteAll();
         productRepository.deleteAll();
     }
 
@@ -97,6 +153,353 @@ class ProductControllerTest {
             assertEquals(product2.getQuantity(), p2.getQuantity());
             assertEquals(product2.getDescription(), p2.getDescription());
         }
+
+        @Test
+        public void success_binary_formats() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+
+            // JSON without an Accept header, the binary formats only when asked for
+            mockMvc.perform(get("/product"))
+                    .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+            for(ObjectMapper mapper : List.of(new ObjectMapper(new SmileFactory()), new ObjectMapper(new CBORFactory()))) {
+                String format = mapper.getFactory() instanceof SmileFactory ? "application/x-jackson-smile" : "application/cbor";
+                MvcResult mvcResult = mockMvc.perform(get("/product").accept(format))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.content().contentType(format))
+                        .andReturn();
+                List<ProductDTO> products = mapper.readValue(mvcResult.getResponse().getContentAsByteArray(),
+                        new TypeReference<List<ProductDTO>>(){});
+                assertEquals(List.of(product.getId(), product2.getId()), products.stream().map(ProductDTO::getId).toList());
+                assertEquals(product.getForAnimal(), products.get(0).getFor_animal());
+                assertEquals(product2.getUtility(), products.get(1).getUtility());
+                assertEquals(product2.getQuantity(), products.get(1).getQuantity());
+            }
+        }
+
+        @Test
+        public void not_modified() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            MvcResult mvcResult = mockMvc.perform(get("/product"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.header().exists("Last-Modified"))
+                    .andReturn();
+            String etag = mvcResult.getResponse().getHeader("ETag");
+
+            mockMvc.perform(get("/product").header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isNotModified())
+                    .andExpect(MockMvcResultMatchers.content().string(""));
+
+            productService.reduceProductQuantity(product.getId(), 1);
+
+            mvcResult = mockMvc.perform(get("/product").header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            assertNotEquals(etag, mvcResult.getResponse().getHeader("ETag"));
+        }
+
+        @Test
+        public void not_modified_other_format() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            MvcResult mvcResult = mockMvc.perform(get("/product"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            String etag = mvcResult.getResponse().getHeader("ETag");
+            assertTrue(mvcResult.getResponse().getHeaders("Vary").contains("Accept"));
+
+            // a cached JSON body is no answer for a CBOR client
+            mvcResult = mockMvc.perform(get("/product").accept("application/cbor").header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.content().contentType("application/cbor"))
+                    .andReturn();
+            String cborEtag = mvcResult.getResponse().getHeader("ETag");
+            assertNotEquals(etag, cborEtag);
+            assertTrue(mvcResult.getResponse().getHeaders("Vary").contains("Accept"));
+
+            mockMvc.perform(get("/product").accept("application/cbor").header("If-None-Match", cborEtag))
+                    .andExpect(MockMvcResultMatchers.status().isNotModified());
+        }
+    }
+
+    @Nested
+    public class getProductPage {
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/page").param("size", "1"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            ProductPage page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductPage.class);
+            assertEquals(1, page.getProducts().size());
+            assertEquals(product.getId(), page.getProducts().get(0).getId());
+
+            mvcResult = mockMvc.perform(get("/product/page")
+                            .param("size", "1")
+                            .param("cursor", page.getNext_cursor()))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductPage.class);
+            assertEquals(1, page.getProducts().size());
+            assertEquals(product2.getId(), page.getProducts().get(0).getId());
+
+            mvcResult = mockMvc.perform(get("/product/page")
+                            .param("size", "1")
+                            .param("cursor", page.getNext_cursor()))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductPage.class);
+            assertEquals(0, page.getProducts().size());
+            assertNull(page.getNext_cursor());
+        }
+
+        @Test
+        public void success_descending() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/page").param("sort", "desc"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            ProductPage page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductPage.class);
+            assertEquals(2, page.getProducts().size());
+            assertEquals(product2.getId(), page.getProducts().get(0).getId());
+            assertEquals(product.getId(), page.getProducts().get(1).getId());
+            assertNull(page.getNext_cursor());
+        }
+
+        @Test
+        public void failure_bad_cursor() throws Exception {
+            MvcResult mvcResult = mockMvc.perform(get("/product/page").param("cursor", "bad cursor"))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                    .andReturn();
+            RestExceptionResponse exceptionResponse = objectMapper.readValue(
+                    mvcResult.getResponse().getContentAsString(), RestExceptionResponse.class);
+            assertEquals("PRODUCT_INVALID_CURSOR", exceptionResponse.getError_code());
+        }
+
+        @Test
+        public void failure_bad_input() throws Exception {
+            mockMvc.perform(get("/product/page").param("size", "0"))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+            mockMvc.perform(get("/product/page").param("sort", "random"))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+    }
+
+    @Nested
+    public class getFilteredProducts {
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            Product product3 = getMockProduct2();
+            product3.setName("name3");
+            product3.setPrice(50);
+            Product product4 = getMockProduct2();
+            product4.setName("name4");
+            product4.setPrice(60);
+            product4.setQuantity(0);
+            productRepository.saveAll(List.of(product, product2, product3, product4));
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/filter")
+                            .param("for_animal", product2.getForAnimal())
+                            .param("utility", product2.getUtility())
+                            .param("max_price", "100")
+                            .param("in_stock", "true")
+                            .param("size", "1"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            ProductPage page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductPage.class);
+            assertEquals(1, page.getProducts().size());
+            assertEquals(product3.getId(), page.getProducts().get(0).getId());
+            assertNull(page.getNext_cursor());
+
+            mvcResult = mockMvc.perform(get("/product/filter")
+                            .param("for_animal", product2.getForAnimal())
+                            .param("min_price", "100"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductPage.class);
+            assertEquals(List.of(product2.getId()), page.getProducts().stream().map(ProductDTO::getId).toList());
+        }
+
+        @Test
+        public void failure_bad_input() throws Exception {
+            mockMvc.perform(get("/product/filter").param("min_price", "-1"))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+
+        @Test
+        public void uses_composite_index() {
+            productRepository.saveAll(List.of(getMockProduct(), getMockProduct2()));
+            String plan = jdbcTemplate.queryForObject(
+                    "explain select * from product where for_animal = 'animal' and utility = 'utility' and price <= 10",
+                    String.class);
+            assertTrue(plan.toLowerCase().contains("idx_product_for_animal_utility_price"), plan);
+        }
+    }
+
+    @Nested
+    public class exportProducts {
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/export"))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_NDJSON));
+
+            String[] lines = mvcResult.getResponse().getContentAsString().split("\n");
+            assertEquals(2, lines.length);
+            ProductDTO p1 = objectMapper.readValue(lines[0], ProductDTO.class);
+            ProductDTO p2 = objectMapper.readValue(lines[1], ProductDTO.class);
+            assertEquals(product.getId(), p1.getId());
+            assertEquals(product.getName(), p1.getName());
+            assertEquals(product.getQuantity(), p1.getQuantity());
+            assertEquals(product2.getId(), p2.getId());
+            assertEquals(product2.getName(), p2.getName());
+            assertEquals(product2.getQuantity(), p2.getQuantity());
+        }
+    }
+
+    @Nested
+    public class importProducts {
+        SimpleGrantedAuthority neededRole = adminRole;
+        SimpleGrantedAuthority notNeededRole = customerRole;
+
+        @Test
+        public void success_csv() throws Exception {
+            String csv = """
+                    name,quantity,price,description,image,for_animal,utility
+                    ball,5,2.5,a ball,ball.png,dog,toy
+                    bed,3,30,a bed,bed.png,cat,bedding
+                    """;
+            MvcResult mvcResult = mockMvc.perform(post("/product/import")
+                            .with(jwt().authorities(neededRole))
+                            .contentType("text/csv")
+                            .content(csv)
+                    ).andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            ProductImportResult result = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductImportResult.class);
+            assertEquals(2, result.getRows());
+            assertEquals(2, result.getInserted());
+            assertEquals(0, result.getFailed());
+            assertTrue(result.isCompleted());
+            Product bed = productRepository.findByName("bed").get();
+            assertEquals(3, bed.getQuantity());
+            assertEquals("cat", bed.getForAnimal());
+            assertEquals(1, productService.searchProducts("ball", 10).size());
+        }
+
+        @Test
+        public void success_upsert() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            String ndjson = "{\"name\":\"" + product.getName() + "\",\"quantity\":42,\"price\":9.5}\n"
+                    + "{\"name\":\"new\",\"quantity\":1,\"price\":1}\n";
+            MvcResult mvcResult = mockMvc.perform(post("/product/import")
+                            .param("mode", "upsert")
+                            .with(jwt().authorities(neededRole))
+                            .contentType(MediaType.APPLICATION_NDJSON)
+                            .content(ndjson)
+                    ).andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            ProductImportResult result = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductImportResult.class);
+            assertEquals(1, result.getInserted());
+            assertEquals(1, result.getUpdated());
+            assertEquals(42, productRepository.findById(product.getId()).get().getQuantity());
+            assertEquals(42, productService.getProductById(product.getId()).getQuantity());
+        }
+
+        @Test
+        public void success_upsert_sharded_elsewhere() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            // sharded by another instance, this one's shard hints don't know about it
+            jdbcTemplate.update("update product set quantity = 0, stock_shards = 2 where id = ?", product.getId());
+            jdbcTemplate.update("insert into product_stock_shard (product_id, shard, quantity) values (?, 0, 5), (?, 1, 5)",
+                    product.getId(), product.getId());
+            String ndjson = "{\"name\":\"" + product.getName() + "\",\"quantity\":42,\"price\":9.5}\n";
+            mockMvc.perform(post("/product/import")
+                    .param("mode", "upsert")
+                    .with(jwt().authorities(neededRole))
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .content(ndjson)
+            ).andExpect(MockMvcResultMatchers.status().isOk());
+
+            // the old shards are gone, the imported quantity is spread over new ones
+            assertEquals(42, productService.getProductById(product.getId()).getQuantity());
+            productService.configureStockShards(product.getId(), 0);
+            assertEquals(42, productRepository.findById(product.getId()).get().getQuantity());
+        }
+
+        @Test
+        public void failure_rows() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            String ndjson = "{\"name\":\"" + product.getName() + "\",\"quantity\":1,\"price\":1}\n"
+                    + "{\"name\":\"\",\"quantity\":1,\"price\":1}\n"
+                    + "{\"name\":\"ok\",\"quantity\":1,\"price\":1}\n"
+                    + "{\"name\":\"ok\",\"quantity\":2,\"price\":1}\n";
+            MvcResult mvcResult = mockMvc.perform(post("/product/import")
+                            .with(jwt().authorities(neededRole))
+                            .contentType(MediaType.APPLICATION_NDJSON)
+                            .content(ndjson)
+                    ).andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            ProductImportResult result = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductImportResult.class);
+            assertEquals(4, result.getRows());
+            assertEquals(1, result.getInserted());
+            assertEquals(3, result.getFailed());
+            Map<Long, String> errors = result.getErrors().stream()
+                    .collect(Collectors.toMap(ProductImportError::getRow, ProductImportError::getError_code));
+            assertEquals(Map.of(1L, "PRODUCT_NAME_ALREADY_TAKEN", 2L, "PRODUCT_INVALID_IMPORT_ROW", 4L, "PRODUCT_NAME_ALREADY_TAKEN"), errors);
+            assertEquals(1, productRepository.findByName("ok").get().getQuantity());
+        }
+
+        @Test
+        public void failure_malformed() throws Exception {
+            String ndjson = "{\"name\":\"first\",\"quantity\":1,\"price\":1}\n"
+                    + "{\"name\":\"second\",\"quantity\":\n";
+            MvcResult mvcResult = mockMvc.perform(post("/product/import")
+                            .with(jwt().authorities(neededRole))
+                            .contentType(MediaType.APPLICATION_NDJSON)
+                            .content(ndjson)
+                    ).andExpect(MockMvcResultMatchers.status().isUnprocessableEntity())
+                    .andReturn();
+            ProductImportResult result = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductImportResult.class);
+            assertFalse(result.isCompleted());
+            assertEquals(1, result.getInserted());
+            assertEquals("PRODUCT_MALFORMED_IMPORT", result.getErrors().get(0).getError_code());
+        }
+
+        @Test
+        public void failure_no_permission() throws Exception {
+            mockMvc.perform(post("/product/import")
+                    .with(jwt().authorities(notNeededRole))
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .content("{\"name\":\"name\",\"quantity\":1,\"price\":1}\n")
+            ).andExpect(MockMvcResultMatchers.status().isForbidden());
+        }
     }
 
     @Nested
@@ -135,6 +538,22 @@ class ProductControllerTest {
             assertEquals("A product already exists with name: " + request.getName(), exceptionResponse.getError_message());
         }
 
+        @Test
+        public void failure_duplicate_of_imported() throws Exception {
+            // caches the empty name lookup, the import writes with JDBC behind Hibernate's back
+            assertTrue(productRepository.findByName("ball").isEmpty());
+            mockMvc.perform(post("/product/import")
+                    .with(jwt().authorities(neededRole))
+                    .contentType("text/csv")
+                    .content("name,quantity,price,description,image,for_animal,utility\nball,5,2.5,a ball,ball.png,dog,toy\n")
+            ).andExpect(MockMvcResultMatchers.status().isOk());
+            mockMvc.perform(post("/product")
+                    .with(jwt().authorities(neededRole))
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(objectMapper.writeValueAsString(new ProductRequest("ball")))
+            ).andExpect(MockMvcResultMatchers.status().isConflict());
+        }
+
         @Test
         public void failure_no_permission() throws Exception {
             ProductRequest request = new ProductRequest("name");
@@ -187,6 +606,47 @@ class ProductControllerTest {
             assertEquals(product.getQuantity(), productDTO.getQuantity());
         }
 
+        @Test
+        public void not_modified() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+            String etag = mockMvc.perform(get("/product/" + product.getId()))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // a change to another product leaves this one's ETag alone
+            productService.reduceProductQuantity(product2.getId(), 1);
+            mockMvc.perform(get("/product/" + product.getId()).header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isNotModified());
+
+            productService.reduceProductQuantity(product.getId(), 1);
+            mockMvc.perform(get("/product/" + product.getId()).header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+        }
+
+        @Test
+        public void not_modified_changed_elsewhere() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            productEventRelay.relay();
+            String etag = mockMvc.perform(get("/product/" + product.getId()))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // another instance changes the product, this one only hears of it through product_event
+            jdbcTemplate.update("update product set price = price + 1 where id = ?", product.getId());
+            jdbcTemplate.update("insert into product_event (product_id, type, created_at) values (?, ?, ?)",
+                    product.getId(), "UPDATED", Timestamp.from(Instant.now()));
+            mockMvc.perform(get("/product/" + product.getId()).header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isNotModified());
+
+            productEventRelay.relay();
+            mockMvc.perform(get("/product/" + product.getId()).header("If-None-Match", etag))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+        }
+
         @Test
         public void failure_bad_input() throws Exception {
             long product_id = -1;
@@ -208,6 +668,53 @@ class ProductControllerTest {
         }
     }
 
+    @Nested
+    public class getProductsByIds {
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+            long missing_id = product2.getId() + 1000;
+            // the first product is cached by now, the second comes from the database
+            productService.getProductById(product.getId());
+            MvcResult mvcResult = mockMvc.perform(get("/product/batch")
+                            .param("ids", product2.getId() + "," + missing_id + "," + product.getId() + "," + product2.getId()))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            String response = mvcResult.getResponse().getContentAsString();
+            ProductBatch batch = objectMapper.readValue(response, ProductBatch.class);
+            assertEquals(List.of(product2.getId(), product.getId()),
+                    batch.getProducts().stream().map(ProductDTO::getId).toList());
+            assertEquals(product2.getName(), batch.getProducts().get(0).getName());
+            assertEquals(product.getQuantity(), batch.getProducts().get(1).getQuantity());
+            assertEquals(List.of(missing_id), batch.getMissing());
+        }
+
+        @Test
+        public void failure_too_many_ids() throws Exception {
+            String ids = LongStream.rangeClosed(1, 101)
+                    .mapToObj(String::valueOf)
+                    .collect(Collectors.joining(","));
+            MvcResult mvcResult = mockMvc.perform(get("/product/batch").param("ids", ids))
+                    .andExpect(MockMvcResultMatchers.status().isUnprocessableEntity())
+                    .andReturn();
+            String response = mvcResult.getResponse().getContentAsString();
+            RestExceptionResponse exceptionResponse = objectMapper.readValue(response, RestExceptionResponse.class);
+            assertEquals("PRODUCT_BATCH_TOO_LARGE", exceptionResponse.getError_code());
+        }
+
+        @Test
+        public void failure_bad_input() throws Exception {
+            mockMvc.perform(get("/product/batch").param("ids", "1,-1"))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+            mockMvc.perform(get("/product/batch").param("ids", ""))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+    }
+
     @Nested
     public class reduceProductQuantity {
 
@@ -275,6 +782,86 @@ class ProductControllerTest {
         }
 
 
+        @Test
+        public void no_oversell_under_contention() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            int threads = 64;
+            int attempts = threads * 4;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger succeeded = new AtomicInteger();
+            AtomicInteger rejected = new AtomicInteger();
+            List<Future<Void>> futures = new ArrayList<>();
+            try {
+                for(int i = 0; i < attempts; i++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            productService.reduceProductQuantity(product.getId(), 1);
+                            succeeded.incrementAndGet();
+                        } catch (ProductServiceException e) {
+                            assertEquals("PRODUCT_QUANTITY_ERROR", e.getError_code());
+                            rejected.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for(Future<Void> future : futures)
+                    future.get(30, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(product.getQuantity(), succeeded.get());
+            assertEquals(attempts - product.getQuantity(), rejected.get());
+            assertEquals(0, productRepository.findById(product.getId()).get().getQuantity());
+        }
+
+        @Test
+        public void no_oversell_with_sharded_stock() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            mockMvc.perform(put("/product/" + product.getId() + "/stock-shards")
+                    .param("shards", "4")
+                    .with(jwt().authorities(adminRole))
+            ).andExpect(MockMvcResultMatchers.status().isNoContent());
+            assertEquals(product.getQuantity(), productService.getProductById(product.getId()).getQuantity());
+
+            int attempts = 64;
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            AtomicInteger succeeded = new AtomicInteger();
+            List<Future<Void>> futures = new ArrayList<>();
+            try {
+                for(int i = 0; i < attempts; i++) {
+                    // amounts of 1 and 3 leave shards too small for a whole line, which goes across shards
+                    int amount = i % 2 == 0 ? 1 : 3;
+                    futures.add(executor.submit(() -> {
+                        try {
+                            productService.reduceProductQuantity(product.getId(), amount);
+                            succeeded.addAndGet(amount);
+                        } catch (ProductServiceException e) {
+                            assertEquals("PRODUCT_QUANTITY_ERROR", e.getError_code());
+                        }
+                        return null;
+                    }));
+                }
+                for(Future<Void> future : futures)
+                    future.get(30, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdownNow();
+            }
+            int left = productService.getProductById(product.getId()).getQuantity();
+            assertTrue(left >= 0 && left < 3, "left " + left);
+            assertEquals(product.getQuantity(), succeeded.get() + left);
+
+            mockMvc.perform(put("/product/" + product.getId() + "/stock-shards")
+                    .param("shards", "0")
+                    .with(jwt().authorities(adminRole))
+            ).andExpect(MockMvcResultMatchers.status().isNoContent());
+            assertEquals(left, productRepository.findById(product.getId()).get().getQuantity());
+        }
+
         @ParameterizedTest
         @MethodSource("bad_input")
         public void failure_bad_input(long product_id, ReduceQuantityRequest request) throws Exception {
@@ -300,6 +887,213 @@ class ProductControllerTest {
         }
     }
 
+    @Nested
+    public class reservations {
+
+        SimpleGrantedAuthority neededRole = customerRole;
+        SimpleGrantedAuthority notNeededRole = adminRole;
+
+        @Test
+        public void reserve_and_commit() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            ReservationResponse reservation = reserve(product.getId(), 4);
+            assertEquals(product.getQuantity() - 4, productRepository.findById(product.getId()).get().getQuantity());
+            assertTrue(reservation.getExpires_at().isAfter(Instant.now()));
+
+            mockMvc.perform(post("/product/reservations/" + reservation.getReservation_id() + "/commit")
+                    .with(jwt().authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isOk());
+
+            assertTrue(productReservationRepository.findById(reservation.getReservation_id()).isEmpty());
+            assertEquals(product.getQuantity() - 4, productRepository.findById(product.getId()).get().getQuantity());
+        }
+
+        @Test
+        public void reserve_and_release() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            ReservationResponse reservation = reserve(product.getId(), 4);
+
+            mockMvc.perform(delete("/product/reservations/" + reservation.getReservation_id())
+                    .with(jwt().authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isNoContent());
+
+            assertEquals(product.getQuantity(), productRepository.findById(product.getId()).get().getQuantity());
+            mockMvc.perform(delete("/product/reservations/" + reservation.getReservation_id())
+                    .with(jwt().authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isNotFound());
+        }
+
+        @Test
+        public void failure_other_customers_hold() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            ReservationResponse reservation = reserve(product.getId(), 4);
+
+            // ids are sequential, another customer guessing one gets the same answer as for a missing hold
+            MvcResult mvcResult = mockMvc.perform(post("/product/reservations/" + reservation.getReservation_id() + "/commit")
+                    .with(jwt().jwt(jwt -> jwt.subject("other")).authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isNotFound()).andReturn();
+            RestExceptionResponse exceptionResponse = objectMapper.readValue(mvcResult.getResponse().getContentAsString(),
+                    RestExceptionResponse.class);
+            assertEquals("PRODUCT_RESERVATION_NOT_FOUND", exceptionResponse.getError_code());
+            mockMvc.perform(delete("/product/reservations/" + reservation.getReservation_id())
+                    .with(jwt().jwt(jwt -> jwt.subject("other")).authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isNotFound());
+
+            assertTrue(productReservationRepository.findById(reservation.getReservation_id()).isPresent());
+            assertEquals(product.getQuantity() - 4, productRepository.findById(product.getId()).get().getQuantity());
+            mockMvc.perform(post("/product/reservations/" + reservation.getReservation_id() + "/commit")
+                    .with(jwt().authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isOk());
+        }
+
+        @Test
+        public void expired_holds_are_swept() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            ReservationResponse reservation = reserve(product.getId(), 4);
+            ProductReservation expired = productReservationRepository.findById(reservation.getReservation_id()).get();
+            expired.setExpiresAt(Instant.now().minusSeconds(1));
+            productReservationRepository.save(expired);
+
+            mockMvc.perform(post("/product/reservations/" + reservation.getReservation_id() + "/commit")
+                    .with(jwt().authorities(neededRole))
+            ).andExpect(MockMvcResultMatchers.status().isGone());
+
+            assertEquals(1, productReservationService.sweepExpired());
+            assertEquals(product.getQuantity(), productRepository.findById(product.getId()).get().getQuantity());
+            assertEquals(product.getQuantity(), productService.getProductById(product.getId()).getQuantity());
+        }
+
+        @Test
+        public void failure_quantity_too_high() throws Exception {
+            Product product = getMockProduct();
+            productRepository.save(product);
+            ReservationRequest request = new ReservationRequest(product.getQuantity() + 1, null);
+            mockMvc.perform(post("/product/" + product.getId() + "/reservations")
+                    .with(jwt().authorities(neededRole))
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(objectMapper.writeValueAsString(request))
+            ).andExpect(MockMvcResultMatchers.status().isConflict());
+            assertEquals(0, productReservationRepository.count());
+        }
+
+        @Test
+        public void failure_no_permission() throws Exception {
+            ReservationRequest request = new ReservationRequest(1, null);
+            mockMvc.perform(post("/product/1/reservations")
+                    .with(jwt().authorities(notNeededRole))
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(objectMapper.writeValueAsString(request))
+            ).andExpect(MockMvcResultMatchers.status().isForbidden());
+        }
+
+        private ReservationResponse reserve(long product_id, int amount) throws Exception {
+            MvcResult mvcResult = mockMvc.perform(post("/product/" + product_id + "/reservations")
+                            .with(jwt().authorities(neededRole))
+                            .contentType(MediaType.APPLICATION_JSON_VALUE)
+                            .content(objectMapper.writeValueAsString(new ReservationRequest(amount, null)))
+                    ).andExpect(MockMvcResultMatchers.status().isCreated())
+                    .andReturn();
+            return objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ReservationResponse.class);
+        }
+    }
+
+    @Nested
+    public class reduceProductQuantities {
+
+        SimpleGrantedAuthority neededRole = customerRole;
+        SimpleGrantedAuthority notNeededRole = adminRole;
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+            BatchReduceQuantityRequest request = new BatchReduceQuantityRequest(List.of(
+                    new ReduceQuantityLine(product2.getId(), 5),
+                    new ReduceQuantityLine(product.getId(), 3),
+                    new ReduceQuantityLine(product2.getId(), 2)));
+            MvcResult mvcResult = mockMvc.perform(put("/product/batch")
+                            .with(jwt().authorities(neededRole))
+                            .contentType(MediaType.APPLICATION_JSON_VALUE)
+                            .content(objectMapper.writeValueAsString(request))
+                    ).andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            BatchReduceQuantityResponse response = objectMapper.readValue(
+                    mvcResult.getResponse().getContentAsString(), BatchReduceQuantityResponse.class);
+            assertTrue(response.isApplied());
+            assertEquals(3, response.getResults().size());
+            response.getResults().forEach(result -> assertNull(result.getError_code()));
+            assertEquals(product.getQuantity() - 3,
+                    productRepository.findById(product.getId()).get().getQuantity());
+            assertEquals(product2.getQuantity() - 7,
+                    productRepository.findById(product2.getId()).get().getQuantity());
+        }
+
+        @Test
+        public void failure_rolled_back() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            productRepository.save(product);
+            productRepository.save(product2);
+            long missing_id = product2.getId() + 1;
+            BatchReduceQuantityRequest request = new BatchReduceQuantityRequest(List.of(
+                    new ReduceQuantityLine(product.getId(), 1),
+                    new ReduceQuantityLine(product2.getId(), product2.getQuantity() + 1),
+                    new ReduceQuantityLine(missing_id, 1)));
+            MvcResult mvcResult = mockMvc.perform(put("/product/batch")
+                            .with(jwt().authorities(neededRole))
+                            .contentType(MediaType.APPLICATION_JSON_VALUE)
+                            .content(objectMapper.writeValueAsString(request))
+                    ).andExpect(MockMvcResultMatchers.status().isConflict())
+                    .andReturn();
+            BatchReduceQuantityResponse response = objectMapper.readValue(
+                    mvcResult.getResponse().getContentAsString(), BatchReduceQuantityResponse.class);
+            assertFalse(response.isApplied());
+            assertNull(response.getResults().get(0).getError_code());
+            assertEquals("PRODUCT_QUANTITY_ERROR", response.getResults().get(1).getError_code());
+            assertEquals("PRODUCT_NOT_FOUND", response.getResults().get(2).getError_code());
+            assertEquals("Product not found with id: " + missing_id, response.getResults().get(2).getError_message());
+            assertEquals(product.getQuantity(),
+                    productRepository.findById(product.getId()).get().getQuantity());
+            assertEquals(product2.getQuantity(),
+                    productRepository.findById(product2.getId()).get().getQuantity());
+        }
+
+        @Test
+        public void failure_no_permission() throws Exception {
+            BatchReduceQuantityRequest request = new BatchReduceQuantityRequest(List.of(new ReduceQuantityLine(1, 1)));
+            mockMvc.perform(put("/product/batch")
+                    .with(jwt().authorities(notNeededRole))
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(objectMapper.writeValueAsString(request))
+            ).andExpect(MockMvcResultMatchers.status().isForbidden());
+        }
+
+        @ParameterizedTest
+        @MethodSource("bad_input")
+        public void failure_bad_input(BatchReduceQuantityRequest request) throws Exception {
+            mockMvc.perform(put("/product/batch")
+                    .with(jwt().authorities(neededRole))
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(objectMapper.writeValueAsString(request))
+            ).andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+
+        public static List<BatchReduceQuantityRequest> bad_input() {
+            List<BatchReduceQuantityRequest> list = new ArrayList<>();
+            list.add(new BatchReduceQuantityRequest(List.of()));
+            list.add(new BatchReduceQuantityRequest(null));
+            list.add(new BatchReduceQuantityRequest(List.of(new ReduceQuantityLine(1, 0))));
+            list.add(new BatchReduceQuantityRequest(List.of(new ReduceQuantityLine(-1, 1))));
+            return list;
+        }
+    }
+
     @Nested
     public class getUtilities {
 
@@ -346,6 +1140,160 @@ class ProductControllerTest {
         }
     }
 
+    @Nested
+    public class searchProducts {
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            product.setName("Squeaky Dog Toy");
+            product.setDescription("Rubber toy for dogs.");
+            Product product2 = getMockProduct2();
+            product2.setName("Cat Scratching Post");
+            product2.setDescription("Sisal post, not a toy for dogs.");
+            productRepository.save(product);
+            productRepository.save(product2);
+
+            assertEquals(List.of(product.getId(), product2.getId()), search("dog toy"));
+            assertEquals(List.of(product2.getId()), search("scratch"));
+            assertEquals(List.of(product.getId()), search("squeeky"));
+            assertEquals(List.of(), search("hamster"));
+
+            productRepository.delete(product2);
+
+            assertEquals(List.of(), search("scratch"));
+        }
+
+        @Test
+        public void success_changed_elsewhere() throws Exception {
+            Product product = getMockProduct();
+            product.setName("Squeaky Dog Toy");
+            productRepository.save(product);
+            // written past the listeners, as another instance or a script would
+            jdbcTemplate.update("update product set name = ? where id = ?", "Catnip Mouse", product.getId());
+
+            assertEquals(List.of(product.getId()), search("squeaky"));
+            assertEquals(List.of(), search("catnip"));
+
+            productSearchIndex.rebuild();
+
+            assertEquals(List.of(), search("squeaky"));
+            assertEquals(List.of(product.getId()), search("catnip"));
+        }
+
+        @Test
+        public void failure_bad_input() throws Exception {
+            mockMvc.perform(get("/product/search").param("q", " "))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+
+        private List<Long> search(String query) throws Exception {
+            MvcResult mvcResult = mockMvc.perform(get("/product/search").param("q", query))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            List<ProductDTO> products = objectMapper.readValue(mvcResult.getResponse().getContentAsString(),
+                    new TypeReference<List<ProductDTO>>() {});
+            return products.stream().map(ProductDTO::getId).toList();
+        }
+    }
+
+    @Nested
+    public class getFacets {
+
+        @Test
+        public void success() throws Exception {
+            Product product = getMockProduct();
+            Product product2 = getMockProduct2();
+            Product product3 = getMockProduct2();
+            product3.setName("name3");
+            productRepository.save(product);
+            productRepository.save(product2);
+            productRepository.save(product3);
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/facets"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+
+            ProductFacets facets = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductFacets.class);
+            assertEquals(Map.of(product.getForAnimal(), 1L, product2.getForAnimal(), 2L), facets.getFor_animals());
+            assertEquals(Map.of(product.getUtility(), 1L, product2.getUtility(), 2L), facets.getUtilities());
+            assertEquals(Map.of(product2.getUtility(), 2L),
+                    facets.getFor_animal_utilities().get(product2.getForAnimal()));
+
+            productRepository.delete(product3);
+
+            mvcResult = mockMvc.perform(get("/product/facets"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            facets = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductFacets.class);
+            assertEquals(1L, facets.getFor_animals().get(product2.getForAnimal()));
+        }
+    }
+
+    @Nested
+    public class events {
+
+        @Test
+        public void success() throws Exception {
+            long after = lastEventSeq();
+            Product product = getMockProduct();
+            productRepository.save(product);
+            productService.reduceProductQuantity(product.getId(), 2);
+            productEventRelay.relay();
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/events").param("after", String.valueOf(after)))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+            ProductEventPage page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductEventPage.class);
+            assertEquals(List.of("CREATED", "STOCK"), page.getEvents().stream().map(ProductEventResponse::getType).toList());
+            assertTrue(page.getEvents().stream().allMatch(event -> event.getProduct_id() == product.getId()));
+            assertEquals(lastEventSeq(), page.getNext_seq());
+        }
+
+        @Test
+        public void long_poll() throws Exception {
+            productEventRelay.relay();
+            long after = lastEventSeq();
+            MvcResult mvcResult = mockMvc.perform(get("/product/events")
+                            .param("after", String.valueOf(after))
+                            .param("wait_seconds", "10"))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+
+            // the poll is parked until the relay sees the change
+            Product product = getMockProduct();
+            productRepository.save(product);
+            productEventRelay.relay();
+
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+            ProductEventPage page = objectMapper.readValue(mvcResult.getResponse().getContentAsString(), ProductEventPage.class);
+            assertEquals(1, page.getEvents().size());
+            assertEquals("CREATED", page.getEvents().get(0).getType());
+            assertEquals(product.getId(), page.getEvents().get(0).getProduct_id());
+        }
+
+        @Test
+        public void failure_expired() throws Exception {
+            productRepository.save(getMockProduct());
+            productRepository.save(getMockProduct2());
+            jdbcTemplate.update("delete from product_event where seq < ?", lastEventSeq());
+
+            MvcResult mvcResult = mockMvc.perform(get("/product/events").param("after", "0"))
+                    .andExpect(MockMvcResultMatchers.status().isGone())
+                    .andReturn();
+            String response = mvcResult.getResponse().getContentAsString();
+            RestExceptionResponse exceptionResponse = objectMapper.readValue(response, RestExceptionResponse.class);
+            assertEquals("PRODUCT_EVENTS_EXPIRED", exceptionResponse.getError_code());
+        }
+
+        private long lastEventSeq() {
+            return jdbcTemplate.queryForObject("select coalesce(max(seq), 0) from product_event", Long.class);
+        }
+    }
+
     public Product getMockProduct() {
         Product product = Product.builder()
                 .name("name")
@@ -0,0 +1,142 @@
+package com.islamhamada.petshop.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.islamhamada.petshop.config.ProductProperties;
+import com.islamhamada.petshop.contracts.model.RestExceptionResponse;
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.jwt;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest(properties = {
+        "product.rate-limit.enabled=true",
+        "product.rate-limit.rules[0].method=PUT",
+        "product.rate-limit.rules[0].path=/product/{product_id}",
+        "product.rate-limit.rules[0].capacity=2",
+        "product.rate-limit.rules[0].refill-per-second=0.01"
+})
+@EnableConfigurationProperties
+@AutoConfigureMockMvc
+class RateLimitFilterTest {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    SimpleGrantedAuthority customerRole = new SimpleGrantedAuthority("ROLE_Customer");
+
+    @BeforeEach
+    public void setup() {
+        productRepository.deleteAll();
+    }
+
+    @Test
+    public void clients_get_their_own_budget() throws Exception {
+        Product product = productRepository.save(getMockProduct());
+        mockMvc.perform(reduce(product, "first")).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(reduce(product, "first")).andExpect(MockMvcResultMatchers.status().isOk());
+
+        MvcResult mvcResult = mockMvc.perform(reduce(product, "first"))
+                .andExpect(MockMvcResultMatchers.status().isTooManyRequests())
+                .andExpect(MockMvcResultMatchers.header().exists("Retry-After"))
+                .andReturn();
+        RestExceptionResponse exceptionResponse = objectMapper.readValue(mvcResult.getResponse().getContentAsString(),
+                RestExceptionResponse.class);
+        assertEquals("PRODUCT_RATE_LIMITED", exceptionResponse.getError_code());
+        assertEquals(8, productRepository.findById(product.getId()).get().getQuantity());
+
+        // another subject, and the endpoints no rule covers, are untouched
+        mockMvc.perform(reduce(product, "second")).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(get("/product/" + product.getId())).andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    public void writes_past_the_limit_are_shed() throws Exception {
+        ProductProperties.Admission admission = new ProductProperties.Admission();
+        admission.setMaxConcurrentWrites(1);
+        admission.setMaxQueueTime(Duration.ofMillis(10));
+        WriteAdmissionFilter filter = new WriteAdmissionFilter(admission, objectMapper, new SimpleMeterRegistry());
+
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+            try {
+                filter.doFilter(new MockHttpServletRequest("PUT", "/product/1"), new MockHttpServletResponse(),
+                        (request, response) -> {
+                            inside.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        inside.await(5, TimeUnit.SECONDS);
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("PUT", "/product/1"), rejected, new MockFilterChain());
+        assertEquals(503, rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+
+        // reads don't take a slot
+        MockHttpServletResponse read = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/product/1"), read, new MockFilterChain());
+        assertEquals(200, read.getStatus());
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        MockHttpServletResponse admitted = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("PUT", "/product/1"), admitted, new MockFilterChain());
+        assertEquals(200, admitted.getStatus());
+    }
+
+    private MockHttpServletRequestBuilder reduce(Product product, String subject) {
+        return put("/product/" + product.getId())
+                .with(jwt().jwt(jwt -> jwt.subject(subject)).authorities(customerRole))
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"amount\": 1}");
+    }
+
+    private static Product getMockProduct() {
+        return Product.builder()
+                .name("name")
+                .price(100)
+                .description("description")
+                .forAnimal("animal")
+                .quantity(10)
+                .utility("utility")
+                .image("image")
+                .build();
+    }
+}
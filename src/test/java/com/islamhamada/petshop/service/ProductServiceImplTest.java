@@ -1,23 +1,49 @@
 package com.islamhamada.petshop.service;
 
+import com.islamhamada.petshop.cache.CatalogVersions;
+import com.islamhamada.petshop.cache.ProductCache;
+import com.islamhamada.petshop.cache.SingleFlight;
+import com.islamhamada.petshop.config.ProductProperties;
 import com.islamhamada.petshop.contracts.dto.ProductDTO;
 import com.islamhamada.petshop.entity.Product;
 import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.index.ProductFacetIndex;
+import com.islamhamada.petshop.index.ProductSearchIndex;
+import com.islamhamada.petshop.model.BatchReduceQuantityResponse;
+import com.islamhamada.petshop.model.ProductBatch;
+import com.islamhamada.petshop.model.ProductFacets;
+import com.islamhamada.petshop.model.ProductFilter;
+import com.islamhamada.petshop.model.ProductPage;
 import com.islamhamada.petshop.model.ProductRequest;
+import com.islamhamada.petshop.model.ReduceQuantityLine;
+import com.islamhamada.petshop.model.ReduceQuantityResult;
 import com.islamhamada.petshop.repository.ProductRepository;
+import com.islamhamada.petshop.repository.ProductView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
@@ -27,6 +53,33 @@ class ProductServiceImplTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Spy
+    private ProductProperties productProperties = new ProductProperties();
+
+    @Spy
+    private ProductMetrics productMetrics = new ProductMetrics(new SimpleMeterRegistry());
+
+    @Mock
+    private ProductCache productCache;
+
+    @Mock
+    private CatalogVersions catalogVersions;
+
+    @Mock
+    private ProductStock productStock;
+
+    @Mock
+    private ProductOutbox productOutbox;
+
+    @Spy
+    private SingleFlight singleFlight = new SingleFlight(new ProductProperties(), new SimpleMeterRegistry());
+
+    @Mock
+    private ProductFacetIndex productFacetIndex;
+
+    @Mock
+    private ProductSearchIndex productSearchIndex;
+
     @InjectMocks
     ProductService productService = new ProductServiceImpl();
 
@@ -38,12 +91,12 @@ class ProductServiceImplTest {
         void getAllProducts_success() {
             List<Product> products = getMockProductList();
 
-            when(productRepository.findAll())
-                    .thenReturn(products);
+            when(productRepository.findPageAfter(anyLong(), any()))
+                    .thenReturn(toViews(products));
 
             List<ProductDTO> rv = productService.getAllProducts();
 
-            verify(productRepository, times(1)).findAll();
+            verify(productRepository, times(1)).findPageAfter(anyLong(), any());
 
             assertEquals(rv.size(), products.size());
             for(int i = 0; i < rv.size(); i++){
@@ -59,6 +112,114 @@ class ProductServiceImplTest {
                 assertEquals(productDTO.getFor_animal(), product.getForAnimal());
             }
         }
+
+        @DisplayName("failure")
+        @Test
+        void getAllProducts_failure() {
+            productProperties.getListing().setMaxUnpagedSize(1);
+            when(productRepository.findPageAfter(anyLong(), any()))
+                    .thenReturn(toViews(getMockProductList()));
+
+            ProductServiceException exception = assertThrows(ProductServiceException.class,
+                    () -> productService.getAllProducts());
+
+            assertEquals("PRODUCT_LISTING_TOO_LARGE", exception.getError_code());
+            assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, exception.getHttpStatus());
+        }
+    }
+
+    @Nested
+    @DisplayName("getProductPage")
+    class getProductPage {
+        @DisplayName("success")
+        @Test
+        void getProductPage_success() {
+            List<Product> products = getMockProductList();
+            when(productRepository.findPageAfter(anyLong(), any()))
+                    .thenReturn(toViews(products));
+
+            ProductPage page = productService.getProductPage(null, 1, "asc");
+
+            verify(productRepository, times(1)).findPageAfter(eq(Long.MIN_VALUE), eq(PageRequest.of(0, 2)));
+            assertEquals(1, page.getProducts().size());
+            assertEquals(products.get(0).getId(), page.getProducts().get(0).getId());
+            assertNotNull(page.getNext_cursor());
+
+            productService.getProductPage(page.getNext_cursor(), 1, "asc");
+
+            verify(productRepository, times(1)).findPageAfter(eq(products.get(0).getId()), any());
+        }
+
+        @DisplayName("last page")
+        @Test
+        void getProductPage_last_page() {
+            List<Product> products = getMockProductList();
+            when(productRepository.findPageBefore(anyLong(), any()))
+                    .thenReturn(toViews(products));
+
+            ProductPage page = productService.getProductPage(null, 2, "desc");
+
+            verify(productRepository, times(1)).findPageBefore(eq(Long.MAX_VALUE), any());
+            assertEquals(2, page.getProducts().size());
+            assertNull(page.getNext_cursor());
+        }
+
+        @DisplayName("failure")
+        @Test
+        void getProductPage_failure() {
+            ProductServiceException exception = assertThrows(ProductServiceException.class,
+                    () -> productService.getProductPage("not a cursor", 1, "asc"));
+
+            verify(productRepository, never()).findPageAfter(anyLong(), any());
+            assertEquals("PRODUCT_INVALID_CURSOR", exception.getError_code());
+            assertEquals(HttpStatus.BAD_REQUEST, exception.getHttpStatus());
+        }
+    }
+
+    @Nested
+    @DisplayName("getFilteredProducts")
+    class getFilteredProducts {
+        @DisplayName("success")
+        @Test
+        void getFilteredProducts_success() {
+            List<Product> products = getMockProductList();
+            when(productRepository.findBy(any(Specification.class), any()))
+                    .thenReturn(products);
+
+            ProductFilter filter = ProductFilter.builder()
+                    .for_animal("for_animal 1")
+                    .max_price(10.0)
+                    .in_stock(true)
+                    .build();
+            ProductPage page = productService.getFilteredProducts(filter, null, 1, "asc");
+
+            verify(productRepository, times(1)).findBy(any(Specification.class), any());
+            assertEquals(1, page.getProducts().size());
+            assertEquals(products.get(0).getId(), page.getProducts().get(0).getId());
+            assertNotNull(page.getNext_cursor());
+        }
+    }
+
+    @Nested
+    @DisplayName("exportProducts")
+    class exportProducts {
+        @DisplayName("success")
+        @Test
+        void exportProducts_success() {
+            List<Product> products = getMockProductList();
+            when(productRepository.streamAll())
+                    .thenReturn(toViews(products).stream());
+
+            List<ProductDTO> exported = new ArrayList<>();
+            productService.exportProducts(exported::add);
+
+            verify(productRepository, times(1)).streamAll();
+            assertEquals(products.size(), exported.size());
+            for(int i = 0; i < exported.size(); i++) {
+                assertEquals(products.get(i).getId(), exported.get(i).getId());
+                assertEquals(products.get(i).getName(), exported.get(i).getName());
+            }
+        }
     }
 
     @Nested
@@ -84,6 +245,38 @@ class ProductServiceImplTest {
             assertEquals(product.getName(), productRequest.getName());
         }
 
+        @DisplayName("concurrent misses share one query")
+        @Test
+        void getProductById_coalesced() throws Exception {
+            Product mockProduct = getMockProduct();
+            CountDownLatch querying = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            when(productRepository.findViewById(anyLong()))
+                    .thenAnswer(invocation -> {
+                        querying.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                        return Optional.of(toView(mockProduct));
+                    });
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<ProductDTO>> futures = new ArrayList<>();
+                futures.add(executor.submit(() -> productService.getProductById(mockProduct.getId())));
+                assertTrue(querying.await(5, TimeUnit.SECONDS));
+                for(int i = 0; i < 3; i++)
+                    futures.add(executor.submit(() -> productService.getProductById(mockProduct.getId())));
+                // gives the other three time to join the running query
+                Thread.sleep(200);
+                release.countDown();
+                for(Future<ProductDTO> future : futures)
+                    assertEquals(mockProduct.getId(), future.get(5, TimeUnit.SECONDS).getId());
+            } finally {
+                executor.shutdownNow();
+            }
+
+            verify(productRepository, times(1)).findViewById(anyLong());
+        }
+
         @DisplayName("failure")
         @Test
         void getProductById_failure() {
@@ -112,12 +305,13 @@ class ProductServiceImplTest {
         @Test
         void getProductById_success() {
             Product mockProduct = getMockProduct();
-            when(productRepository.findById(anyLong()))
-                    .thenReturn(Optional.of(mockProduct));
+            when(productRepository.findViewById(anyLong()))
+                    .thenReturn(Optional.of(toView(mockProduct)));
 
             ProductDTO productDTO = productService.getProductById(mockProduct.getId());
 
-            verify(productRepository, times(1)).findById(anyLong());
+            verify(productRepository, times(1)).findViewById(anyLong());
+            verify(productCache, times(1)).put(productDTO);
 
             assertNotNull(productDTO);
             assertEquals(productDTO.getId(), mockProduct.getId());
@@ -130,17 +324,34 @@ class ProductServiceImplTest {
             assertEquals(productDTO.getUtility(), mockProduct.getUtility());
         }
 
+        @DisplayName("success from cache")
+        @Test
+        void getProductById_cached() {
+            ProductDTO cached = ProductDTO.builder()
+                    .id(1L)
+                    .name("name")
+                    .build();
+            when(productCache.get(anyLong()))
+                    .thenReturn(cached);
+
+            ProductDTO productDTO = productService.getProductById(1);
+
+            verify(productRepository, never()).findViewById(anyLong());
+            assertSame(cached, productDTO);
+        }
+
         @DisplayName("failure")
         @Test
         void getProductById_failure() {
-            when(productRepository.findById(anyLong()))
+            when(productRepository.findViewById(anyLong()))
                     .thenReturn(Optional.empty());
 
             int id = 1;
             ProductServiceException exception = assertThrows(ProductServiceException.class,
                     () -> productService.getProductById(id));
 
-            verify(productRepository, times(1)).findById(anyLong());
+            verify(productRepository, times(1)).findViewById(anyLong());
+            verify(productMetrics, times(1)).error("NOT_FOUND");
 
             assertEquals(HttpStatus.NOT_FOUND, exception.getHttpStatus());
             assertEquals("PRODUCT_NOT_FOUND", exception.getError_code());
@@ -148,6 +359,48 @@ class ProductServiceImplTest {
         }
     }
 
+    @Nested
+    @DisplayName("getProductsByIds")
+    class getProductsByIds {
+
+        @DisplayName("success")
+        @Test
+        void getProductsByIds_success() {
+            List<Product> products = getMockProductList();
+            ProductDTO cached = ProductDTO.builder()
+                    .id(2L)
+                    .name("product 2")
+                    .build();
+            when(productCache.get(2L))
+                    .thenReturn(cached);
+            when(productRepository.findViewsByIdIn(any()))
+                    .thenReturn(toViews(products.subList(0, 1)));
+
+            ProductBatch rv = productService.getProductsByIds(List.of(2L, 3L, 1L, 2L));
+
+            // only the ids the cache doesn't have go to the database
+            verify(productRepository, times(1)).findViewsByIdIn(List.of(3L, 1L));
+            verify(productCache, times(1)).put(any());
+            assertEquals(2, rv.getProducts().size());
+            assertSame(cached, rv.getProducts().get(0));
+            assertEquals(products.get(0).getId(), rv.getProducts().get(1).getId());
+            assertEquals(List.of(3L), rv.getMissing());
+        }
+
+        @DisplayName("failure")
+        @Test
+        void getProductsByIds_failure() {
+            productProperties.getListing().setMaxBatchSize(2);
+
+            ProductServiceException exception = assertThrows(ProductServiceException.class,
+                    () -> productService.getProductsByIds(List.of(1L, 2L, 3L)));
+
+            verify(productRepository, never()).findViewsByIdIn(any());
+            assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, exception.getHttpStatus());
+            assertEquals("PRODUCT_BATCH_TOO_LARGE", exception.getError_code());
+        }
+    }
+
     @DisplayName("reduceProductQuantity")
     @Nested
     class reduceProductQuantity {
@@ -155,21 +408,26 @@ class ProductServiceImplTest {
         @DisplayName("success")
         @Test
         void reduceProductQuantity_success() {
-            Product mockProduct = getMockProduct();;
-            int init_quantity = mockProduct.getQuantity();
+            Product mockProduct = getMockProduct();
             int amount = 3;
 
-            when(productRepository.findById(anyLong()))
-                    .thenReturn(Optional.of(mockProduct));
+            when(productStock.reduce(anyLong(), anyInt()))
+                    .thenReturn(true);
 
-            productService.reduceProductQuantity(mockProduct.getId(), amount);
+            int rv = productService.reduceProductQuantity(mockProduct.getId(), amount);
 
-            verify(productRepository, times(1))
+            verify(productStock, times(1))
+                    .reduce(mockProduct.getId(), amount);
+            verify(productRepository, never())
                     .findById(anyLong());
-            verify(productRepository, times(1))
+            verify(productRepository, never())
                     .save(any());
+            verify(productCache, times(1))
+                    .evict(mockProduct.getId());
+            verify(catalogVersions, times(1))
+                    .bump(mockProduct.getId());
 
-            assertEquals(mockProduct.getQuantity(), init_quantity - amount);
+            assertEquals(amount, rv);
         }
 
         @DisplayName("failure 1")
@@ -177,16 +435,18 @@ class ProductServiceImplTest {
         void reduceProductQuantity_failure1() {
             int id = 1;
 
-            when(productRepository.findById(anyLong()))
-                    .thenReturn(Optional.empty());
+            when(productStock.reduce(anyLong(), anyInt()))
+                    .thenReturn(false);
+            when(productRepository.existsById(anyLong()))
+                    .thenReturn(false);
 
             ProductServiceException exception = assertThrows(ProductServiceException.class,
                     () -> productService.reduceProductQuantity(id, 1));
 
+            verify(productStock, times(1))
+                    .reduce(anyLong(), anyInt());
             verify(productRepository, times(1))
-                    .findById(anyLong());
-            verify(productRepository, times(0))
-                    .save(any());
+                    .existsById(anyLong());
 
             assertEquals("Product not found with id: " + id, exception.getMessage());
             assertEquals("PRODUCT_NOT_FOUND", exception.getError_code());
@@ -199,16 +459,20 @@ class ProductServiceImplTest {
             Product mockProduct = getMockProduct();
             int amount = mockProduct.getQuantity() + 1;
 
-            when(productRepository.findById(anyLong()))
-                    .thenReturn(Optional.of(mockProduct));
+            when(productStock.reduce(anyLong(), anyInt()))
+                    .thenReturn(false);
+            when(productRepository.existsById(anyLong()))
+                    .thenReturn(true);
 
             ProductServiceException exception = assertThrows(ProductServiceException.class,
                     () -> productService.reduceProductQuantity(mockProduct.getId(), amount));
 
+            verify(productStock, times(1))
+                    .reduce(anyLong(), anyInt());
             verify(productRepository, times(1))
-                    .findById(anyLong());
-            verify(productRepository, never())
-                    .save(any());
+                    .existsById(anyLong());
+            verify(productMetrics, times(1))
+                    .error("QUANTITY_ERROR");
 
             assertEquals(exception.getMessage(), "A product can't have a negative quantity. " +
                     "Amount of " + amount + " is too high for product with id: " + mockProduct.getId());
@@ -217,25 +481,52 @@ class ProductServiceImplTest {
         }
     }
 
+    @DisplayName("reduceProductQuantities")
+    @Nested
+    class reduceProductQuantities {
+
+        @DisplayName("failure overflowing lines")
+        @Test
+        void reduceProductQuantities_failure_overflow() {
+            long id = 1;
+            List<ReduceQuantityLine> lines = List.of(
+                    new ReduceQuantityLine(id, Integer.MAX_VALUE),
+                    new ReduceQuantityLine(id, Integer.MAX_VALUE));
+
+            BatchReduceQuantityResponse rv = productService.reduceProductQuantities(lines);
+
+            verify(productStock, never())
+                    .reduceAll(any());
+            verify(productStock, never())
+                    .reduce(anyLong(), anyInt());
+            verify(productOutbox, never())
+                    .record(any(), any());
+
+            assertFalse(rv.isApplied());
+            assertEquals(2, rv.getResults().size());
+            for(ReduceQuantityResult result : rv.getResults()) {
+                assertEquals("PRODUCT_QUANTITY_ERROR", result.getError_code());
+                assertEquals("A product can't have a negative quantity. Amount of " + 2L * Integer.MAX_VALUE
+                        + " is too high for product with id: " + id, result.getError_message());
+            }
+        }
+    }
+
     @Nested
     @DisplayName("getUtilities")
     class getUtilities {
 
         @Test
         void getUtilities_success() {
-            List<Product> productList = getMockProductList();
-            when(productRepository.getDistinctUtilities())
-                    .thenReturn(productList.stream().map(product -> product.getUtility())
-                            .collect(Collectors.toSet())
-                            .stream().toList());
+            List<String> mockUtilities = List.of("utility 1", "utility 2");
+            when(productFacetIndex.getUtilities())
+                    .thenReturn(mockUtilities);
 
             List<String> utilities = productService.getUtilities();
 
-            verify(productRepository, times(1)).getDistinctUtilities();
+            verify(productFacetIndex, times(1)).getUtilities();
 
-            assertEquals(utilities,
-                    productList.stream().map(product -> product.getUtility())
-                            .collect(Collectors.toSet()).stream().toList());
+            assertEquals(mockUtilities, utilities);
         }
     }
 
@@ -245,19 +536,58 @@ class ProductServiceImplTest {
 
         @Test
         void getForAnimals_success() {
-            List<Product> productList = getMockProductList();
-            when(productRepository.getDistinctForAnimals())
-                    .thenReturn(productList.stream().map(product -> product.getForAnimal())
-                            .collect(Collectors.toSet())
-                            .stream().toList());
+            List<String> mockForAnimals = List.of("for_animal 1", "for_animal 2");
+            when(productFacetIndex.getForAnimals())
+                    .thenReturn(mockForAnimals);
 
             List<String> forAnimals = productService.getForAnimals();
 
-            verify(productRepository, times(1)).getDistinctForAnimals();
+            verify(productFacetIndex, times(1)).getForAnimals();
 
-            assertEquals(forAnimals,
-                    productList.stream().map(product -> product.getForAnimal())
-                            .collect(Collectors.toSet()).stream().toList());
+            assertEquals(mockForAnimals, forAnimals);
+        }
+    }
+
+    @Nested
+    @DisplayName("getFacets")
+    class getFacets {
+
+        @Test
+        void getFacets_success() {
+            ProductFacets mockFacets = ProductFacets.builder()
+                    .for_animals(Map.of("for_animal 1", 2L))
+                    .utilities(Map.of("utility 1", 2L))
+                    .for_animal_utilities(Map.of("for_animal 1", Map.of("utility 1", 2L)))
+                    .build();
+            when(productFacetIndex.getFacets())
+                    .thenReturn(mockFacets);
+
+            ProductFacets facets = productService.getFacets();
+
+            verify(productFacetIndex, times(1)).getFacets();
+            assertEquals(mockFacets, facets);
+        }
+    }
+
+    @Nested
+    @DisplayName("searchProducts")
+    class searchProducts {
+
+        @Test
+        void searchProducts_success() {
+            List<Product> products = getMockProductList();
+            when(productSearchIndex.search(anyString(), anyInt()))
+                    .thenReturn(List.of(2L, 3L, 1L));
+            when(productRepository.findViewsByIdIn(any()))
+                    .thenReturn(toViews(products));
+
+            List<ProductDTO> rv = productService.searchProducts("product", 10);
+
+            verify(productSearchIndex, times(1)).search("product", 10);
+            verify(productRepository, times(1)).findViewsByIdIn(List.of(2L, 3L, 1L));
+            assertEquals(2, rv.size());
+            assertEquals(products.get(1).getId(), rv.get(0).getId());
+            assertEquals(products.get(0).getId(), rv.get(1).getId());
         }
     }
 
@@ -295,4 +625,13 @@ class ProductServiceImplTest {
                 .build();
         return List.of(product1, product2);
     }
-}
\ No newline at end of file
+
+    private static ProductView toView(Product product) {
+        return new ProductView(product.getId(), product.getName(), product.getQuantity(), product.getPrice(),
+                product.getDescription(), product.getImage(), product.getForAnimal(), product.getUtility());
+    }
+
+    private static List<ProductView> toViews(List<Product> products) {
+        return products.stream().map(ProductServiceImplTest::toView).toList();
+    }
+}
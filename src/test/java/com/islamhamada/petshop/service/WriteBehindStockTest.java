@@ -0,0 +1,171 @@
+package com.islamhamada.petshop.service;
+
+import com.islamhamada.petshop.entity.Product;
+import com.islamhamada.petshop.exception.ProductServiceException;
+import com.islamhamada.petshop.model.BatchReduceQuantityResponse;
+import com.islamhamada.petshop.model.ReduceQuantityLine;
+import com.islamhamada.petshop.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// flushes only happen when a test calls flush(), so the database shows exactly what has been written behind
+@SpringBootTest(properties = {
+        "product.write-behind.enabled=true",
+        "product.write-behind.node-id=test",
+        "product.write-behind.journal-directory=target/stock-journal-test",
+        "product.write-behind.flush-interval=1h",
+        "product.write-behind.flush-operations=1000000"
+})
+@EnableConfigurationProperties
+class WriteBehindStockTest {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private WriteBehindStock writeBehindStock;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        writeBehindStock.flush();
+        productRepository.deleteAll();
+    }
+
+    @Test
+    public void decrements_reach_the_database_with_the_flush() {
+        Product product = productRepository.save(getMockProduct("name", 10));
+        productService.reduceProductQuantity(product.getId(), 3);
+        productService.reduceProductQuantity(product.getId(), 2);
+        assertEquals(10, storedQuantity(product.getId()));
+
+        writeBehindStock.flush();
+        assertEquals(5, storedQuantity(product.getId()));
+        long checkpoint = jdbcTemplate.queryForObject(
+                "select sequence from stock_journal_checkpoint where node_id = 'test'", Long.class);
+        productService.reduceProductQuantity(product.getId(), 1);
+        writeBehindStock.flush();
+        assertEquals(4, storedQuantity(product.getId()));
+        assertEquals(checkpoint + 1, jdbcTemplate.queryForObject(
+                "select sequence from stock_journal_checkpoint where node_id = 'test'", Long.class));
+    }
+
+    @Test
+    public void no_oversell_from_the_counters() throws Exception {
+        Product product = productRepository.save(getMockProduct("name", 10));
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for(int i = 0; i < 64; i++)
+                futures.add(executor.submit(() -> {
+                    try {
+                        productService.reduceProductQuantity(product.getId(), 1);
+                        succeeded.incrementAndGet();
+                    } catch (ProductServiceException e) {
+                        assertEquals("PRODUCT_QUANTITY_ERROR", e.getError_code());
+                    }
+                    return null;
+                }));
+            for(Future<Void> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(10, succeeded.get());
+        writeBehindStock.flush();
+        assertEquals(0, storedQuantity(product.getId()));
+    }
+
+    @Test
+    public void rolled_back_batch_gives_the_stock_back() {
+        Product product = productRepository.save(getMockProduct("name", 10));
+        Product other = productRepository.save(getMockProduct("name2", 1));
+        BatchReduceQuantityResponse response = productService.reduceProductQuantities(List.of(
+                new ReduceQuantityLine(product.getId(), 4),
+                new ReduceQuantityLine(other.getId(), 2)));
+        assertFalse(response.isApplied());
+
+        productService.reduceProductQuantity(product.getId(), 10);
+        assertThrows(ProductServiceException.class, () -> productService.reduceProductQuantity(product.getId(), 1));
+        writeBehindStock.flush();
+        assertEquals(0, storedQuantity(product.getId()));
+        assertEquals(1, storedQuantity(other.getId()));
+    }
+
+    @Test
+    public void journal_ends_at_a_torn_record(@TempDir Path directory) throws IOException {
+        try(StockJournal journal = new StockJournal(directory, 1024, true)) {
+            journal.start(41);
+            journal.append(1, 3);
+            journal.append(2, -1);
+            journal.sync(journal.append(1, 5));
+        }
+        Path segment;
+        try(var files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        List<StockJournal.Entry> entries = new StockJournal(directory, 1024, true).read();
+        assertEquals(List.of(new StockJournal.Entry(42, 1, 3), new StockJournal.Entry(43, 2, -1)), entries);
+    }
+
+    @Test
+    public void journal_drops_segments_behind_the_checkpoint(@TempDir Path directory) throws IOException {
+        // two records per segment
+        try(StockJournal journal = new StockJournal(directory, 2L * StockJournal.RECORD_SIZE, false)) {
+            journal.start(0);
+            for(int i = 0; i < 5; i++)
+                journal.append(1, 1);
+            journal.deleteUpTo(3);
+        }
+        List<StockJournal.Entry> entries = new StockJournal(directory, 1024, false).read();
+        assertEquals(List.of(3L, 4L, 5L), entries.stream().map(StockJournal.Entry::sequence).toList());
+    }
+
+    private int storedQuantity(long id) {
+        return jdbcTemplate.queryForObject("select quantity from product where id = ?", Integer.class, id);
+    }
+
+    private static Product getMockProduct(String name, int quantity) {
+        return Product.builder()
+                .name(name)
+                .price(100)
+                .description("description")
+                .forAnimal("animal")
+                .quantity(quantity)
+                .utility("utility")
+                .image("image")
+                .build();
+    }
+}